@@ -0,0 +1,146 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.DCCreation;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.random.RepetitiveRandomTraceGenerator;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+/**
+ * Measures the time needed to replay a synthetic trace with the
+ * {@link MultiIaaSJobDispatcher} on clouds created with {@link DCCreation}.
+ * Every invocation builds fresh clouds and a fresh trace, then the measured part
+ * simulates until the last job is complete.
+ *
+ * Note: {@link VMKeeper#keepVMs} is decided when the VMKeeper class is loaded,
+ * thus the benchmark must be run in forked JVMs (JMH forks for every parameter
+ * combination, so the keepVMs parameter is applied before the first keeper is
+ * created).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JobDispatchingBenchmark {
+	/**
+	 * Total number of PMs (they are split equally amongst the clouds)
+	 */
+	@Param({ "100", "1000" })
+	public int nodes;
+	/**
+	 * Number of CPU cores in a single PM
+	 */
+	@Param({ "16", "64" })
+	public int cores;
+	/**
+	 * Number of IaaS services to be created
+	 */
+	@Param({ "1", "4" })
+	public int clouds;
+	/**
+	 * Number of jobs in the synthetic trace
+	 */
+	@Param({ "1000", "10000" })
+	public int traceSize;
+	/**
+	 * Should the VMs be kept for reuse until their billing period expires
+	 */
+	@Param({ "false", "true" })
+	public boolean keepVMs;
+
+	private MultiIaaSJobDispatcher dispatcher;
+
+	@Setup(Level.Trial)
+	public void configureKeeper() {
+		final String prop = "hu.mta.sztaki.lpds.cloud.simulator.examples.keepVMs";
+		if (keepVMs) {
+			System.setProperty(prop, "true");
+		} else {
+			System.clearProperty(prop);
+		}
+		if (VMKeeper.keepVMs != keepVMs) {
+			throw new IllegalStateException("VMKeeper was loaded before the keepVMs parameter could be applied");
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void prepareSimulation() throws Exception {
+		Timed.resetTimed();
+		final List<IaaSService> iaasList = new ArrayList<IaaSService>(clouds);
+		for (int clid = 0; clid < clouds; clid++) {
+			iaasList.add(DCCreation.createDataCentre(FirstFitScheduler.class, SchedulingDependentMachines.class,
+					nodes / clouds, cores));
+		}
+		// Wait until the PM Controllers finish their initial activities
+		Timed.simulateUntilLastEvent();
+
+		final RepetitiveRandomTraceGenerator trgen = new RepetitiveRandomTraceGenerator(DCFJob.class);
+		trgen.setJobNum(traceSize);
+		trgen.setParallel(Math.max(1, nodes / 10));
+		trgen.setMaxStartSpread(10);
+		trgen.setExecmin(10);
+		trgen.setExecmax(90);
+		trgen.setMingap(200);
+		trgen.setMaxgap(200);
+		trgen.setMinNodeProcs(1);
+		trgen.setMaxNodeprocs(cores);
+		trgen.setMaxTotalProcs(nodes * cores);
+
+		dispatcher = new MultiIaaSJobDispatcher(trgen, iaasList);
+		// Moving the simulator's time just before the first job is due
+		Timed.skipEventsTill(dispatcher.getMinsubmittime() * 1000);
+	}
+
+	@Benchmark
+	public long dispatchTrace() {
+		Timed.simulateUntilLastEvent();
+		return dispatcher.getDestroycounter();
+	}
+
+	@TearDown(Level.Invocation)
+	public void dropSimulation() {
+		dispatcher = null;
+		Timed.resetTimed();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Streams the records of a file written by {@link BinaryStateSink} back into
+ * {@link OverallSystemState} objects. Only a single block of the file is kept
+ * in memory at a time.
+ */
+public class BinaryStateReader {
+	private final ReadableByteChannel in;
+	private final ByteBuffer block;
+	/**
+	 * The number of records in the current block
+	 */
+	private int count = 0;
+	/**
+	 * The next record to be offered from the current block
+	 */
+	private int next = 0;
+
+	/**
+	 * Checks the header of the binary file and prepares for reading its records
+	 *
+	 * @param in the channel of the binary file, it is closed with the reader
+	 * @throws IOException if the file is not in the binary monitoring format
+	 */
+	public BinaryStateReader(final ReadableByteChannel in) throws IOException {
+		this.in = in;
+		final ByteBuffer header = ByteBuffer.allocate(12);
+		if (!fill(header)) {
+			throw new EOFException("Missing header");
+		}
+		if (header.getInt(0) != BinaryStateSink.magic || header.getInt(4) != BinaryStateSink.version) {
+			throw new IOException("Not a binary monitoring file");
+		}
+		block = ByteBuffer.allocate(header.getInt(8) * BinaryStateSink.recordLength);
+	}
+
+	/**
+	 * Reads until the buffer is full
+	 *
+	 * @return false if the end of the file was reached before reading anything
+	 */
+	private boolean fill(final ByteBuffer buf) throws IOException {
+		buf.clear();
+		while (buf.hasRemaining()) {
+			if (in.read(buf) < 0) {
+				if (buf.position() == 0) {
+					return false;
+				}
+				throw new EOFException("Truncated binary monitoring file");
+			}
+		}
+		buf.flip();
+		return true;
+	}
+
+	/**
+	 * Loads the next block of records
+	 *
+	 * @return false if there are no more blocks
+	 */
+	private boolean nextBlock() throws IOException {
+		final ByteBuffer countBuf = ByteBuffer.allocate(4);
+		if (!fill(countBuf)) {
+			return false;
+		}
+		count = countBuf.getInt(0);
+		block.limit(count * BinaryStateSink.recordLength);
+		block.position(0);
+		while (block.hasRemaining()) {
+			if (in.read(block) < 0) {
+				throw new EOFException("Truncated binary monitoring file");
+			}
+		}
+		next = 0;
+		return true;
+	}
+
+	/**
+	 * Reads the next record of the file
+	 *
+	 * @param into the record to be filled with the data read
+	 * @return false if there are no more records in the file (into is left
+	 *         untouched then)
+	 * @throws IOException if the file could not be read
+	 */
+	public boolean next(final OverallSystemState into) throws IOException {
+		if (next == count && !nextBlock()) {
+			return false;
+		}
+		// The start of the columns in the block
+		final int ints = count * 8;
+		into.timeStamp = block.getLong(next * 8);
+		into.finishedVMs = block.getInt(ints + next * 4);
+		into.queueLen = block.getInt(ints + (count + next) * 4);
+		into.runningVMs = block.getInt(ints + (2 * count + next) * 4);
+		into.usedCores = block.getInt(ints + (3 * count + next) * 4);
+		into.runningPMs = block.getInt(ints + (4 * count + next) * 4);
+		into.totalTransferredData = block.getDouble(ints + 5 * count * 4 + next * 8);
+		next++;
+		return true;
+	}
+
+	/**
+	 * Reads the next record of the file
+	 *
+	 * @return the record read or null if there are no more records
+	 * @throws IOException if the file could not be read
+	 */
+	public OverallSystemState next() throws IOException {
+		final OverallSystemState st = new OverallSystemState();
+		return next(st) ? st : null;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Converts a binary monitoring file to the CSV format on the standard output
+	 *
+	 * @param args the binary file to be converted
+	 * @throws IOException if the file could not be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Expected parameter: the binary monitoring file to be printed as CSV");
+			System.exit(0);
+		}
+		final BinaryStateReader reader = new BinaryStateReader(new FileInputStream(args[0]).getChannel());
+		final CsvStateSink csv = new CsvStateSink(Channels.newChannel(System.out));
+		final OverallSystemState st = new OverallSystemState();
+		while (reader.next(st)) {
+			csv.write(st.timeStamp, st.finishedVMs, st.queueLen, st.runningVMs, st.usedCores, st.runningPMs,
+					st.totalTransferredData);
+		}
+		reader.close();
+		csv.close();
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the state records in a fixed width binary columnar format. The file
+ * starts with a header (magic number, format version and block size), then the
+ * records follow in blocks of at most {@link #blockSize} records. Every block
+ * starts with its record count and then lists the fields of its records column
+ * by column in the following order (big endian):
+ * <ol>
+ * <li>timestamps (longs)</li>
+ * <li>finished VM counts (ints)</li>
+ * <li>queue lengths (ints)</li>
+ * <li>running VM counts (ints)</li>
+ * <li>used core counts (ints)</li>
+ * <li>running PM counts (ints)</li>
+ * <li>total transferred data (doubles)</li>
+ * </ol>
+ *
+ * The files can be read back with {@link BinaryStateReader}.
+ */
+public class BinaryStateSink extends StateSink {
+	public static final int magic = 0x44434653; // DCFS
+	public static final int version = 1;
+	public static final int blockSize = 4096;
+	/**
+	 * The size of a single record in the binary format
+	 */
+	public static final int recordLength = 8 + 5 * 4 + 8;
+
+	private final WritableByteChannel out;
+	private final ByteBuffer buf = ByteBuffer.allocate(4 + blockSize * recordLength);
+	private final long[] timeStamp = new long[blockSize];
+	private final int[] finishedVMs = new int[blockSize];
+	private final int[] queueLen = new int[blockSize];
+	private final int[] runningVMs = new int[blockSize];
+	private final int[] usedCores = new int[blockSize];
+	private final int[] runningPMs = new int[blockSize];
+	private final double[] totalTransferredData = new double[blockSize];
+	/**
+	 * The number of records in the current block
+	 */
+	private int count = 0;
+
+	/**
+	 * Prepares the sink and writes the header of the file.
+	 *
+	 * @param out the channel to write to, it is closed with the sink
+	 */
+	public BinaryStateSink(final WritableByteChannel out) throws IOException {
+		this.out = out;
+		buf.putInt(magic).putInt(version).putInt(blockSize);
+		writeBuffer();
+	}
+
+	private void writeBuffer() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			out.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Writes out the current block column by column
+	 */
+	private void writeBlock() throws IOException {
+		if (count == 0) {
+			return;
+		}
+		buf.putInt(count);
+		for (int i = 0; i < count; i++) {
+			buf.putLong(timeStamp[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			buf.putInt(finishedVMs[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			buf.putInt(queueLen[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			buf.putInt(runningVMs[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			buf.putInt(usedCores[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			buf.putInt(runningPMs[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			buf.putDouble(totalTransferredData[i]);
+		}
+		writeBuffer();
+		count = 0;
+	}
+
+	@Override
+	public void write(final long timeStamp, final int finishedVMs, final int queueLen, final int runningVMs,
+			final int usedCores, final int runningPMs, final double totalTransferredData) throws IOException {
+		this.timeStamp[count] = timeStamp;
+		this.finishedVMs[count] = finishedVMs;
+		this.queueLen[count] = queueLen;
+		this.runningVMs[count] = runningVMs;
+		this.usedCores[count] = usedCores;
+		this.runningPMs[count] = runningPMs;
+		this.totalTransferredData[count] = totalTransferredData;
+		if (++count == blockSize) {
+			writeBlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		writeBlock();
+		out.close();
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
+
+/**
+ * A cheap view of a cloud's load for the {@link CloudSelectionPolicy}. The
+ * total capacity of the cloud is determined once, while the cores used by the
+ * dispatcher's VMs are counted as the VMs are requested and terminated. So,
+ * none of the queries need to iterate through the PMs or VMs of the cloud.
+ * 
+ * The summary also profiles the capacity of the cloud's PMs, so the VMs of a
+ * job can be sized for each cloud of a heterogeneous federation (see
+ * {@link JobSplitPlanner}). The PMs are indexed by their core counts when the
+ * summary is created.
+ */
+public class CloudCapacitySummary {
+	/**
+	 * The cloud summarised
+	 */
+	public final IaaSService cloud;
+	/**
+	 * The repository of the cloud which hosts the dispatcher's VA
+	 */
+	public final Repository repo;
+	/**
+	 * The number of cores in all PMs of the cloud
+	 */
+	private final double totalCores;
+	/**
+	 * The number of cores requested for the VMs that are not yet terminated
+	 */
+	private double usedCores = 0;
+	/**
+	 * The distinct core counts of the cloud's PMs in ascending order
+	 */
+	private final double[] pmCoreSizes;
+	/**
+	 * The number of PMs having the core count listed at the same index of
+	 * {@link #pmCoreSizes}
+	 */
+	private final int[] pmsPerSize;
+	/**
+	 * The per core processing power of the slowest PM of the cloud
+	 */
+	private final double minProcPower;
+
+	public CloudCapacitySummary(final IaaSService cloud, final Repository repo) {
+		this.cloud = cloud;
+		this.repo = repo;
+		double cores = 0;
+		double procPower = Double.MAX_VALUE;
+		final TreeMap<Double, Integer> sizes = new TreeMap<Double, Integer>();
+		for (PhysicalMachine pm : cloud.machines) {
+			final double pmCores = pm.getCapacities().getRequiredCPUs();
+			cores += pmCores;
+			procPower = Math.min(procPower, pm.getCapacities().getRequiredProcessingPower());
+			final Integer count = sizes.get(pmCores);
+			sizes.put(pmCores, count == null ? 1 : count + 1);
+		}
+		totalCores = cores;
+		minProcPower = procPower;
+		pmCoreSizes = new double[sizes.size()];
+		pmsPerSize = new int[sizes.size()];
+		int i = 0;
+		for (Map.Entry<Double, Integer> e : sizes.entrySet()) {
+			pmCoreSizes[i] = e.getKey();
+			pmsPerSize[i++] = e.getValue();
+		}
+	}
+
+	/**
+	 * Records new VMs on the cloud
+	 * 
+	 * @param count      the number of VMs requested
+	 * @param coresPerVM the size of the VMs
+	 */
+	void vmsRequested(final int count, final double coresPerVM) {
+		usedCores += count * coresPerVM;
+	}
+
+	/**
+	 * Records the termination of a VM on the cloud
+	 * 
+	 * @param cores the size of the VM
+	 */
+	void vmTerminated(final double cores) {
+		usedCores = Math.max(0, usedCores - cores);
+	}
+
+	/**
+	 * Tells the number of VM requests waiting in the cloud's scheduler
+	 */
+	public int getQueueLength() {
+		return cloud.sched.getQueueLength();
+	}
+
+	public double getTotalCores() {
+		return totalCores;
+	}
+
+	/**
+	 * Tells the number of cores not yet asked for by our VMs
+	 */
+	public double getFreeCores() {
+		return Math.max(0, totalCores - usedCores);
+	}
+
+	/**
+	 * Estimates the number of cores available on the PMs that are already
+	 * running, i.e., the cores that could be used without switching on further
+	 * PMs.
+	 */
+	public double getFreeRunningCores() {
+		return Math.max(0, cloud.getRunningCapacities().getRequiredCPUs() - usedCores);
+	}
+
+	/**
+	 * Tells the number of cores of the cloud's biggest PM
+	 */
+	public double getMaxPMCores() {
+		return pmCoreSizes.length == 0 ? 0 : pmCoreSizes[pmCoreSizes.length - 1];
+	}
+
+	/**
+	 * Tells if all PMs of the cloud have the same number of cores
+	 */
+	public boolean hasUniformPMs() {
+		return pmCoreSizes.length == 1;
+	}
+
+	/**
+	 * Tells the number of distinct PM sizes in the cloud
+	 */
+	public int getPMSizeCount() {
+		return pmCoreSizes.length;
+	}
+
+	/**
+	 * Tells the core count of the PMs in a size class
+	 * 
+	 * @param size the index of the size class, the classes are in ascending
+	 *             order of their core counts
+	 */
+	public double getPMCores(final int size) {
+		return pmCoreSizes[size];
+	}
+
+	/**
+	 * Tells the number of PMs in a size class
+	 * 
+	 * @param size the index of the size class (see {@link #getPMCores(int)})
+	 */
+	public int getPMCount(final int size) {
+		return pmsPerSize[size];
+	}
+
+	/**
+	 * Tells the per core processing power of the cloud's slowest PM, VMs
+	 * requesting this much can be hosted on any of the PMs.
+	 */
+	public double getMinProcessingPower() {
+		return minProcPower;
+	}
+
+	/**
+	 * Determines how many VMs of a particular size the cloud could host if all
+	 * its PMs were empty
+	 * 
+	 * @param coresPerVM the number of cores for each VM
+	 * @return the number of VMs that would fit the PMs of the cloud
+	 */
+	public int hostableVMs(final double coresPerVM) {
+		int first = Arrays.binarySearch(pmCoreSizes, coresPerVM);
+		if (first < 0) {
+			first = -first - 1;
+		}
+		int count = 0;
+		for (int i = first; i < pmCoreSizes.length; i++) {
+			count += pmsPerSize[i] * (int) (pmCoreSizes[i] / coresPerVM);
+		}
+		return count;
+	}
+
+	/**
+	 * Tells the ratio of the cloud's cores asked for by our VMs
+	 */
+	public double getUtilisation() {
+		return totalCores == 0 ? 1 : usedCores / totalCores;
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.Random;
+
+/**
+ * Decides which cloud should receive the VMs of a job in the
+ * {@link MultiIaaSJobDispatcher}. The policies work on the
+ * {@link CloudCapacitySummary} of the clouds, so their decisions do not need
+ * to scan the clouds' PMs.
+ */
+public abstract class CloudSelectionPolicy {
+	/**
+	 * The system property to select the policy of the dispatcher. Its value is
+	 * either one of the policy names of {@link #byName(String)}, or the fully
+	 * qualified name of a policy class with a public no argument constructor.
+	 */
+	public static final String policyProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.cloudSelection";
+
+	/**
+	 * Chooses a cloud for a set of VMs
+	 * 
+	 * @param clouds     the summaries of all target clouds (always in the same
+	 *                   order)
+	 * @param excluded   marks the clouds that must not be chosen (e.g., because
+	 *                   they already received a part of the job), at least one
+	 *                   cloud is not excluded
+	 * @param vmCount    the number of VMs to be requested
+	 * @param coresPerVM the number of cores each VM needs
+	 * @return the index of the chosen cloud in the clouds array
+	 */
+	public abstract int select(CloudCapacitySummary[] clouds, boolean[] excluded, int vmCount, double coresPerVM);
+
+	/**
+	 * Visits the clouds one after the other regardless of their load. The
+	 * excluded clouds are skipped, but the rotation continues after the chosen
+	 * cloud, so the clouds of a job spanning multiple clouds follow each other
+	 * in the rotation's order.
+	 */
+	public static class RoundRobin extends CloudSelectionPolicy {
+		private int next = 0;
+
+		@Override
+		public int select(final CloudCapacitySummary[] clouds, final boolean[] excluded, final int vmCount,
+				final double coresPerVM) {
+			int chosen = next;
+			for (int i = 0; i < clouds.length; i++) {
+				chosen = (next + i) % clouds.length;
+				if (!excluded[chosen]) {
+					break;
+				}
+			}
+			next = (chosen + 1) % clouds.length;
+			return chosen;
+		}
+	}
+
+	/**
+	 * Chooses the cloud with the fewest VM requests queued in its scheduler,
+	 * ties are resolved by the number of free cores
+	 */
+	public static class LeastQueue extends CloudSelectionPolicy {
+		@Override
+		public int select(final CloudCapacitySummary[] clouds, final boolean[] excluded, final int vmCount,
+				final double coresPerVM) {
+			int best = -1;
+			int bestQueue = Integer.MAX_VALUE;
+			for (int i = 0; i < clouds.length; i++) {
+				if (excluded[i]) {
+					continue;
+				}
+				final int queue = clouds[i].getQueueLength();
+				if (best == -1 || queue < bestQueue
+						|| queue == bestQueue && clouds[i].getFreeCores() > clouds[best].getFreeCores()) {
+					best = i;
+					bestQueue = queue;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Chooses the cloud with the most cores not yet used by our VMs
+	 */
+	public static class MostFreeCores extends CloudSelectionPolicy {
+		@Override
+		public int select(final CloudCapacitySummary[] clouds, final boolean[] excluded, final int vmCount,
+				final double coresPerVM) {
+			int best = -1;
+			for (int i = 0; i < clouds.length; i++) {
+				if (!excluded[i] && (best == -1 || clouds[i].getFreeCores() > clouds[best].getFreeCores())) {
+					best = i;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Consolidates the VMs on the already running PMs: chooses the cloud with the
+	 * least spare capacity on its running PMs that still fits all the VMs (so the
+	 * other clouds can have their PMs switched off). If no cloud has enough
+	 * running capacity, then PMs must be switched on somewhere, and the cloud with
+	 * the most free cores is chosen.
+	 */
+	public static class EnergyAware extends CloudSelectionPolicy {
+		private final MostFreeCores fallback = new MostFreeCores();
+
+		@Override
+		public int select(final CloudCapacitySummary[] clouds, final boolean[] excluded, final int vmCount,
+				final double coresPerVM) {
+			final double needed = vmCount * coresPerVM;
+			int best = -1;
+			double bestSpare = Double.MAX_VALUE;
+			for (int i = 0; i < clouds.length; i++) {
+				if (excluded[i]) {
+					continue;
+				}
+				final double spare = clouds[i].getFreeRunningCores();
+				if (spare >= needed && spare < bestSpare) {
+					best = i;
+					bestSpare = spare;
+				}
+			}
+			return best == -1 ? fallback.select(clouds, excluded, vmCount, coresPerVM) : best;
+		}
+	}
+
+	/**
+	 * Samples two clouds at random and chooses the less loaded one (the one with
+	 * the shorter queue, or with the lower utilisation if the queues are equal).
+	 * Avoids herding all requests to the same cloud while still reacting to
+	 * load. The random sequence is fixed, so simulations are repeatable.
+	 */
+	public static class PowerOfTwoChoices extends CloudSelectionPolicy {
+		private final Random rnd = new Random(1);
+
+		@Override
+		public int select(final CloudCapacitySummary[] clouds, final boolean[] excluded, final int vmCount,
+				final double coresPerVM) {
+			int available = 0;
+			for (int i = 0; i < excluded.length; i++) {
+				available += excluded[i] ? 0 : 1;
+			}
+			if (available == 1) {
+				return nthAvailable(excluded, 0);
+			}
+			final int ra = rnd.nextInt(available);
+			int rb = rnd.nextInt(available - 1);
+			if (rb >= ra) {
+				rb++;
+			}
+			final int a = nthAvailable(excluded, ra);
+			final int b = nthAvailable(excluded, rb);
+			final int qa = clouds[a].getQueueLength();
+			final int qb = clouds[b].getQueueLength();
+			if (qa != qb) {
+				return qa < qb ? a : b;
+			}
+			return clouds[a].getUtilisation() <= clouds[b].getUtilisation() ? a : b;
+		}
+
+		private static int nthAvailable(final boolean[] excluded, int n) {
+			for (int i = 0; i < excluded.length; i++) {
+				if (!excluded[i] && n-- == 0) {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException("All clouds are excluded");
+		}
+	}
+
+	/**
+	 * Creates one of the built in policies
+	 * 
+	 * @param name roundrobin, leastqueue, mostfreecores, energyaware or
+	 *             poweroftwo (case insensitive)
+	 * @return the new policy, or null if the name is not known
+	 */
+	public static CloudSelectionPolicy byName(final String name) {
+		final String n = name.toLowerCase();
+		if (n.equals("roundrobin")) {
+			return new RoundRobin();
+		} else if (n.equals("leastqueue")) {
+			return new LeastQueue();
+		} else if (n.equals("mostfreecores")) {
+			return new MostFreeCores();
+		} else if (n.equals("energyaware")) {
+			return new EnergyAware();
+		} else if (n.equals("poweroftwo")) {
+			return new PowerOfTwoChoices();
+		}
+		return null;
+	}
+
+	/**
+	 * Determines the policy requested via the system properties
+	 * 
+	 * @return the policy named in {@link #policyProperty}, round robin if the
+	 *         property is not set
+	 */
+	public static CloudSelectionPolicy fromSystemProperties() {
+		final String name = System.getProperty(policyProperty);
+		if (name == null) {
+			return new RoundRobin();
+		}
+		final CloudSelectionPolicy builtIn = byName(name);
+		if (builtIn != null) {
+			return builtIn;
+		}
+		try {
+			return (CloudSelectionPolicy) Class.forName(name).newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unknown cloud selection policy: " + name, e);
+		}
+	}
+}
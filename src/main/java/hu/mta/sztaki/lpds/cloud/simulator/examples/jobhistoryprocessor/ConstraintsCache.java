@@ -0,0 +1,151 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ConstantConstraints;
+
+/**
+ * Interns the resource constraints used for the VM requests of the jobs. Traces
+ * tend to use only a few distinct processor counts, so the same few constraint
+ * objects can be shared by all the VM requests of a simulation.
+ *
+ * The cache is an open addressing hash table over primitive arrays, thus a
+ * lookup of an already interned constraint set does not allocate anything.
+ */
+public class ConstraintsCache {
+	/**
+	 * The bit patterns of the cpu core counts of the interned constraints
+	 */
+	private long[] procs;
+	/**
+	 * The bit patterns of the per core processing powers of the interned
+	 * constraints
+	 */
+	private long[] procPower;
+	/**
+	 * Tells if the processing power is the minimum required or not
+	 */
+	private boolean[] minimum;
+	/**
+	 * The memory of the interned constraints
+	 */
+	private long[] memory;
+	/**
+	 * The interned constraints, null marks an empty slot
+	 */
+	private ConstantConstraints[] cached;
+	/**
+	 * Number of constraints interned so far
+	 */
+	private int size = 0;
+
+	/**
+	 * Prepares an empty cache.
+	 *
+	 * @param expectedSize the number of distinct constraint sets expected (the
+	 *                     cache grows beyond this if needed)
+	 */
+	public ConstraintsCache(final int expectedSize) {
+		allocate(Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1);
+	}
+
+	private void allocate(final int capacity) {
+		procs = new long[capacity];
+		procPower = new long[capacity];
+		minimum = new boolean[capacity];
+		memory = new long[capacity];
+		cached = new ConstantConstraints[capacity];
+	}
+
+	private static int hash(final long procBits, final long ppBits, final boolean isMin, final long mem) {
+		long h = procBits * 0x9E3779B97F4A7C15L;
+		h = (h ^ ppBits) * 0x9E3779B97F4A7C15L;
+		h = (h ^ mem) * 0x9E3779B97F4A7C15L;
+		h ^= isMin ? 0x5bd1e995 : 0;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Looks up the constraint set with the given properties. If there was no such
+	 * set requested before, it is created and interned.
+	 *
+	 * @param cpus  the number of cpu cores to be requested
+	 * @param pp    the per core processing power to be requested
+	 * @param isMin is the processing power the minimum required
+	 * @param mem   the memory to be requested
+	 * @return the shared constraint object representing the requested resources
+	 */
+	public ConstantConstraints get(final double cpus, final double pp, final boolean isMin, final long mem) {
+		final long procBits = Double.doubleToLongBits(cpus);
+		final long ppBits = Double.doubleToLongBits(pp);
+		final int mask = cached.length - 1;
+		int idx = hash(procBits, ppBits, isMin, mem) & mask;
+		while (cached[idx] != null) {
+			if (procs[idx] == procBits && procPower[idx] == ppBits && minimum[idx] == isMin && memory[idx] == mem) {
+				return cached[idx];
+			}
+			idx = (idx + 1) & mask;
+		}
+		final ConstantConstraints rc = new ConstantConstraints(cpus, pp, isMin, mem);
+		store(idx, procBits, ppBits, isMin, mem, rc);
+		if (++size * 2 > cached.length) {
+			grow();
+		}
+		return rc;
+	}
+
+	private void store(final int idx, final long procBits, final long ppBits, final boolean isMin, final long mem,
+			final ConstantConstraints rc) {
+		procs[idx] = procBits;
+		procPower[idx] = ppBits;
+		minimum[idx] = isMin;
+		memory[idx] = mem;
+		cached[idx] = rc;
+	}
+
+	private void grow() {
+		final long[] oldProcs = procs;
+		final long[] oldPP = procPower;
+		final boolean[] oldMin = minimum;
+		final long[] oldMem = memory;
+		final ConstantConstraints[] oldCached = cached;
+		allocate(oldCached.length << 1);
+		final int mask = cached.length - 1;
+		for (int i = 0; i < oldCached.length; i++) {
+			if (oldCached[i] != null) {
+				int idx = hash(oldProcs[i], oldPP[i], oldMin[i], oldMem[i]) & mask;
+				while (cached[idx] != null) {
+					idx = (idx + 1) & mask;
+				}
+				store(idx, oldProcs[i], oldPP[i], oldMin[i], oldMem[i], oldCached[i]);
+			}
+		}
+	}
+
+	/**
+	 * Tells how many distinct constraint sets were interned
+	 *
+	 * @return the number of constraint objects held by the cache
+	 */
+	public int size() {
+		return size;
+	}
+}
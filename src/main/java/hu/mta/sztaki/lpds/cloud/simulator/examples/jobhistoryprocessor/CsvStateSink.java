@@ -0,0 +1,120 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the state records in the CSV format of
+ * {@link OverallSystemState#toString()}. The numbers are encoded in ASCII
+ * directly into a reusable buffer which is written out once it is full.
+ */
+public class CsvStateSink extends StateSink {
+	/**
+	 * The longest CSV line a single record could produce
+	 */
+	private static final int maxLineLength = 7 * 22;
+	/**
+	 * Where do we write the data?
+	 */
+	private final WritableByteChannel out;
+	/**
+	 * The lines are encoded here, and written out once the buffer is full.
+	 */
+	private final ByteBuffer buf = ByteBuffer.allocate(1024 * 1024);
+	/**
+	 * Holds the digits of a number while they are encoded
+	 */
+	private final byte[] digits = new byte[20];
+
+	/**
+	 * Prepares the sink and encodes the header line of the CSV.
+	 *
+	 * @param out the channel to write to, it is closed with the sink
+	 */
+	public CsvStateSink(final WritableByteChannel out) {
+		this.out = out;
+		final String header = "UnixTime*1000" + ",NrFinished,NrQueued,VMNum,UsedCores,OnPMs,CentralRepoTX\n";
+		for (int i = 0; i < header.length(); i++) {
+			buf.put((byte) header.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes out the encoded lines
+	 */
+	private void flush() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			out.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Encodes a number in ASCII without creating a string for it
+	 */
+	private void putNumber(long value, final byte separator) {
+		if (value < 0) {
+			buf.put((byte) '-');
+			if (value == Long.MIN_VALUE) {
+				// Cannot be negated
+				final String s = Long.toString(value);
+				for (int i = 1; i < s.length(); i++) {
+					buf.put((byte) s.charAt(i));
+				}
+				buf.put(separator);
+				return;
+			}
+			value = -value;
+		}
+		int pos = digits.length;
+		do {
+			digits[--pos] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		buf.put(digits, pos, digits.length - pos);
+		buf.put(separator);
+	}
+
+	@Override
+	public void write(final long timeStamp, final int finishedVMs, final int queueLen, final int runningVMs,
+			final int usedCores, final int runningPMs, final double totalTransferredData) throws IOException {
+		if (buf.remaining() < maxLineLength) {
+			flush();
+		}
+		putNumber(timeStamp, (byte) ',');
+		putNumber(finishedVMs, (byte) ',');
+		putNumber(queueLen, (byte) ',');
+		putNumber(runningVMs, (byte) ',');
+		putNumber(usedCores, (byte) ',');
+		putNumber(runningPMs, (byte) ',');
+		putNumber((long) totalTransferredData, (byte) '\n');
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		out.close();
+	}
+}
@@ -42,6 +42,27 @@ import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
  *         MTA SZTAKI (c) 2012"
  */
 public class DCFJob extends Job {
+	/**
+	 * Allows the simulation to follow the jobs as they start and complete (e.g.,
+	 * to collect statistics without keeping the jobs around till the end of the
+	 * simulation).
+	 */
+	public static interface LifecycleListener {
+		/**
+		 * The job was started, its real queue time is already recorded
+		 */
+		void jobStarted(DCFJob j);
+
+		/**
+		 * The job was completed, its real stop time is already recorded
+		 */
+		void jobCompleted(DCFJob j);
+	}
+
+	/**
+	 * The party to be notified about the job lifecycle events (if any)
+	 */
+	private static LifecycleListener lifecycleListener = null;
 
 	private ArrayList<Job> afterThisJob = null;
 
@@ -76,6 +97,9 @@ public class DCFJob extends Job {
 	 */
 	public void started() {
 		setRealqueueTime(Timed.getFireCount() / 1000 - getSubmittimeSecs());
+		if (lifecycleListener != null) {
+			lifecycleListener.jobStarted(this);
+		}
 	}
 
 	/**
@@ -84,6 +108,18 @@ public class DCFJob extends Job {
 	public void completed() {
 		setRan(true);
 		setRealstopTime(Timed.getFireCount() / 1000 - getSubmittimeSecs());
+		if (lifecycleListener != null) {
+			lifecycleListener.jobCompleted(this);
+		}
+	}
+
+	/**
+	 * Sets who should be notified when DCFJobs start or complete
+	 * 
+	 * @param l the listener, null to cancel the notifications
+	 */
+	public static void setLifecycleListener(final LifecycleListener l) {
+		lifecycleListener = l;
 	}
 
 	public List<Job> getDependants() {
@@ -0,0 +1,167 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
+
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ResourceConstraints;
+
+/**
+ * Indexes the VM keepers which hold a VM that is not in use at the moment. The
+ * keepers are bucketed by the per core processing power and by the number of
+ * CPU cores allocated to their VMs. For every processing power at least as
+ * big as the requested one, the smallest VM that could host a particular
+ * request is found with a ceiling lookup. This ensures we leave the smallest
+ * amount of unused resources in the VMs. There are only a few distinct
+ * processing powers (at most one per cloud for the dispatcher's VMs), so a
+ * lookup stays logarithmic in the number of free VMs even in heterogeneous
+ * federations.
+ *
+ * Keepers enter the index when their VM is released and leave it when they are
+ * taken for reuse or when their VM is terminated. Thus the index never holds
+ * dead keepers and there is no need to sweep it.
+ */
+public class FreeVMIndex {
+	/**
+	 * The free keepers grouped by the per core processing power, then by the core
+	 * count of their VMs. Inside a bucket the keepers are listed in the order of
+	 * their release.
+	 */
+	private final TreeMap<Double, TreeMap<Double, LinkedHashSet<VMKeeper>>> buckets = new TreeMap<Double, TreeMap<Double, LinkedHashSet<VMKeeper>>>();
+	/**
+	 * Tells the processing power and core count keys of each indexed keeper
+	 * (allows removal even if the VM of the keeper no longer has a resource
+	 * allocation).
+	 */
+	private final IdentityHashMap<VMKeeper, double[]> bucketOf = new IdentityHashMap<VMKeeper, double[]>();
+
+	/**
+	 * Adds a free keeper to the index. Keepers with VMs that have no resources
+	 * allocated are not indexed as they could not host any requests.
+	 *
+	 * @param keeper the keeper that has just released its VM
+	 */
+	public void add(final VMKeeper keeper) {
+		final ResourceConstraints allocated = keeper.getAllocatedResources();
+		if (allocated == null || bucketOf.containsKey(keeper)) {
+			return;
+		}
+		final double power = allocated.getRequiredProcessingPower();
+		final double cores = allocated.getRequiredCPUs();
+		TreeMap<Double, LinkedHashSet<VMKeeper>> bySize = buckets.get(power);
+		if (bySize == null) {
+			bySize = new TreeMap<Double, LinkedHashSet<VMKeeper>>();
+			buckets.put(power, bySize);
+		}
+		LinkedHashSet<VMKeeper> bucket = bySize.get(cores);
+		if (bucket == null) {
+			bucket = new LinkedHashSet<VMKeeper>();
+			bySize.put(cores, bucket);
+		}
+		bucket.add(keeper);
+		bucketOf.put(keeper, new double[] { power, cores });
+	}
+
+	/**
+	 * Drops a keeper from the index (e.g., because its VM was terminated).
+	 *
+	 * @param keeper the keeper to be dropped, if it is not indexed, the call has
+	 *               no effect
+	 */
+	public void remove(final VMKeeper keeper) {
+		final double[] keys = bucketOf.remove(keeper);
+		if (keys != null) {
+			final TreeMap<Double, LinkedHashSet<VMKeeper>> bySize = buckets.get(keys[0]);
+			final LinkedHashSet<VMKeeper> bucket = bySize.get(keys[1]);
+			bucket.remove(keeper);
+			if (bucket.isEmpty()) {
+				bySize.remove(keys[1]);
+				if (bySize.isEmpty()) {
+					buckets.remove(keys[0]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the smallest free VM that could host the given resource request and
+	 * removes its keeper from the index.
+	 *
+	 * Note: the first keeper in the first bucket of a processing power is
+	 * usually a fit as the dispatcher requests the same memory for all its VMs.
+	 *
+	 * @param rc the resource set the VM should be able to host
+	 * @return the keeper of the VM that can be reused, or null if there is no such
+	 *         VM in the index
+	 */
+	public VMKeeper take(final ResourceConstraints rc) {
+		VMKeeper best = null;
+		double bestCores = Double.MAX_VALUE;
+		for (final TreeMap<Double, LinkedHashSet<VMKeeper>> bySize : buckets
+				.tailMap(rc.getRequiredProcessingPower(), true).values()) {
+			final VMKeeper candidate = smallestFit(bySize, rc, bestCores);
+			if (candidate != null) {
+				best = candidate;
+				bestCores = bucketOf.get(candidate)[1];
+			}
+		}
+		if (best != null) {
+			remove(best);
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the smallest fitting keeper amongst the VMs of a single processing
+	 * power
+	 *
+	 * @param bySize the keepers of the processing power grouped by core count
+	 * @param rc     the resource set the VM should be able to host
+	 * @param limit  only VMs with fewer cores than this are considered
+	 * @return the fitting keeper or null if there is none below the limit
+	 */
+	private static VMKeeper smallestFit(final TreeMap<Double, LinkedHashSet<VMKeeper>> bySize,
+			final ResourceConstraints rc, final double limit) {
+		for (final LinkedHashSet<VMKeeper> bucket : bySize.subMap(rc.getRequiredCPUs(), true, limit, false)
+				.values()) {
+			final Iterator<VMKeeper> it = bucket.iterator();
+			while (it.hasNext()) {
+				final VMKeeper current = it.next();
+				if (current.isFree() && current.wouldFit(rc)) {
+					return current;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Tells the number of free keepers indexed
+	 *
+	 * @return the count of keepers that are ready for reuse
+	 */
+	public int size() {
+		return bucketOf.size();
+	}
+}
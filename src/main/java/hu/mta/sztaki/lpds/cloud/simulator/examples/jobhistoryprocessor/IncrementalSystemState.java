@@ -0,0 +1,128 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+
+/**
+ * Maintains the PM and VM related aggregates of {@link OverallSystemState}
+ * incrementally, so the state monitor does not need to visit every PM in every
+ * sample. The counters are initialised with a single scan of the clouds, then
+ * they are updated from the state change events of the PMs and the VMs
+ * requested by the dispatcher.
+ *
+ * A VM is considered to occupy a PM (and its cores) while it is not in one of
+ * the {@link VirtualMachine#preStartupStates}. It is counted as finished when
+ * it leaves the PM. Migrations are not counted as finished VMs, thus the
+ * finished VM count could differ from the PMs' own statistics if consolidation
+ * is used.
+ */
+class IncrementalSystemState implements VirtualMachine.StateChange, PhysicalMachine.StateChangeListener,
+		MultiIaaSJobDispatcher.VMRequestListener {
+	int finishedVMs = 0;
+	int runningVMs = 0;
+	int runningPMs = 0;
+	double usedCores = 0;
+	/**
+	 * The number of cores each VM on a PM occupies (the allocation of the VM
+	 * might be gone by the time we are notified about its departure)
+	 */
+	private final IdentityHashMap<VirtualMachine, Double> coresOf = new IdentityHashMap<VirtualMachine, Double>();
+
+	/**
+	 * Scans the clouds for the initial values of the aggregates and subscribes to
+	 * the state changes of their PMs.
+	 *
+	 * @param iaasList   the clouds to be monitored
+	 * @param dispatcher the source of the VMs in the clouds
+	 */
+	IncrementalSystemState(final List<IaaSService> iaasList, final MultiIaaSJobDispatcher dispatcher) {
+		for (IaaSService iaas : iaasList) {
+			for (PhysicalMachine pm : iaas.machines) {
+				finishedVMs += pm.getCompletedVMs();
+				runningVMs += pm.numofCurrentVMs();
+				usedCores += pm.getCapacities().getRequiredCPUs() - pm.freeCapacities.getRequiredCPUs();
+				runningPMs += pm.isRunning() ? 1 : 0;
+				pm.subscribeStateChangeEvents(this);
+			}
+		}
+		dispatcher.addVMRequestListener(this);
+	}
+
+	private static boolean isOnPM(final VirtualMachine.State st) {
+		return !VirtualMachine.preStartupStates.contains(st);
+	}
+
+	private void arrived(final VirtualMachine vm) {
+		final PhysicalMachine.ResourceAllocation ra = vm.getResourceAllocation();
+		final double cores = ra == null ? 0 : ra.allocated.getRequiredCPUs();
+		coresOf.put(vm, cores);
+		runningVMs++;
+		usedCores += cores;
+	}
+
+	private void departed(final VirtualMachine vm) {
+		final Double cores = coresOf.remove(vm);
+		runningVMs--;
+		finishedVMs++;
+		usedCores -= cores == null ? 0 : cores;
+	}
+
+	@Override
+	public void vmRequested(final VirtualMachine vm) {
+		// The VM might have been placed already during the request
+		if (isOnPM(vm.getState())) {
+			arrived(vm);
+		}
+		vm.subscribeStateChange(this);
+	}
+
+	@Override
+	public void stateChanged(final VirtualMachine vm, final VirtualMachine.State oldState,
+			final VirtualMachine.State newState) {
+		final boolean wasOn = isOnPM(oldState);
+		final boolean isOn = isOnPM(newState);
+		if (!wasOn && isOn) {
+			arrived(vm);
+		} else if (wasOn && !isOn) {
+			departed(vm);
+		}
+		if (VirtualMachine.State.DESTROYED.equals(newState) || VirtualMachine.State.NONSERVABLE.equals(newState)) {
+			vm.unsubscribeStateChange(this);
+		}
+	}
+
+	@Override
+	public void stateChanged(final PhysicalMachine pm, final PhysicalMachine.State oldState,
+			final PhysicalMachine.State newState) {
+		if (PhysicalMachine.State.RUNNING.equals(oldState)) {
+			runningPMs--;
+		}
+		if (PhysicalMachine.State.RUNNING.equals(newState)) {
+			runningPMs++;
+		}
+	}
+}
@@ -25,13 +25,19 @@
 package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.CachedTraceProducer;
 import hu.mta.sztaki.lpds.cloud.simulator.examples.util.DCCreation;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.MetricsRegistry;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.FileBasedTraceProducerFactory;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.GenericTraceProducer;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.TraceFilter;
@@ -67,8 +73,48 @@ import hu.mta.sztaki.lpds.cloud.simulator.util.CloudLoader;
  *         MTA SZTAKI (c) 2012-5"
  */
 public class JobDispatchingDemo {
+	/**
+	 * If set, the metrics of the simulation are printed periodically (the value
+	 * of the property is the period in simulated ms)
+	 */
+	public static final String metricsPeriodProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.metricsPeriod";
+
+	/**
+	 * Stops the periodic metrics export once the dispatcher has sent out all its
+	 * jobs and the clouds have no more VMs to run (the export would keep the
+	 * simulation alive otherwise).
+	 */
+	private static class MetricsExportStopper extends Timed {
+		private final MultiIaaSJobDispatcher dispatcher;
+		private final List<IaaSService> iaasList;
+
+		MetricsExportStopper(final MultiIaaSJobDispatcher dispatcher, final List<IaaSService> iaasList,
+				final long period) {
+			this.dispatcher = dispatcher;
+			this.iaasList = iaasList;
+			subscribe(period);
+		}
+
+		@Override
+		public void tick(final long fires) {
+			if (dispatcher.isSubscribed()) {
+				return;
+			}
+			for (IaaSService iaas : iaasList) {
+				if (iaas.sched.getQueueLength() != 0) {
+					return;
+				}
+				for (PhysicalMachine pm : iaas.machines) {
+					if (pm.numofCurrentVMs() != 0) {
+						return;
+					}
+				}
+			}
+			MetricsRegistry.global.stopExport();
+			unsubscribe();
+		}
+	}
 
-	@SuppressWarnings("unchecked")
 	public static void main(String[] args) throws Exception {
 		// The help
 		if (args.length < 2) {
@@ -100,7 +146,8 @@ public class JobDispatchingDemo {
 					"2C) (optional) if the range is followed by an '@', then one can specify to filter the jobs from the above range so they are all supposed to be running at a specific time instance (the time instance is given after the '@' character)");
 			System.out.println("2 - example) +10-20@10000");
 			System.out.println("3. Cloud definition");
-			System.out.println("3A) one either gives a full path to the description of the cloud to be used");
+			System.out.println(
+					"3A) one either gives a full path to the description of the cloud to be used, a comma separated list of such paths, or a directory with the cloud descriptions (all its .xml files are loaded one after the other, one cloud each)");
 			System.out.println("3B) or it is possible to specify a the number of hosts and"
 					+ "the number of cpus in a host and the number of clouds these"
 					+ "hosts should be spread out with the following format:");
@@ -122,11 +169,92 @@ public class JobDispatchingDemo {
 					"\tThe consolidator class to be used for all clouds, if an unknown class is listed here we fall back to SimpleConsolidator");
 			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.consolidator.freq");
 			System.out.println("\tThe consolidator frequency to be used for all clouds");
+			System.out.println(CloudSelectionPolicy.policyProperty);
+			System.out.println(
+					"\tThe way the target cloud of the VMs is chosen: roundrobin (default), leastqueue, mostfreecores, energyaware, poweroftwo or a policy class");
 			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.verbosity");
 			System.out.println("\tTurn on additional logging information");
+			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.streamingWindow");
+			System.out.println(
+					"\tThe trace is read in windows of the given number of jobs instead of loading it completely before the simulation");
+			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.verifyMonitoring");
+			System.out.println(
+					"\tThe monitoring samples are collected with a full scan of all PMs and compared to the incrementally maintained values");
+			System.out.println(StateSink.formatProperty);
+			System.out.println("\tThe format of the monitoring output: " + StateSink.csvFormat + " (default), "
+					+ StateSink.gzipCsvFormat + " or " + StateSink.binaryFormat);
+			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.traceCache");
+			System.out.println(
+					"\tTrace files are parsed only once, later runs load them from a binary cache written next to the trace ([tracefile]"
+							+ CachedTraceProducer.cacheExtension + ")");
+			System.out.println(metricsPeriodProperty);
+			System.out.println(
+					"\tThe metrics of the dispatcher are printed periodically (the value is the period in simulated ms), they are printed once at the end of the simulation anyways");
 			System.exit(0);
 		}
+		runSimulation(args);
+	}
+
+	/**
+	 * Determines the cloud description files listed in the cloud definition
+	 * argument
+	 * 
+	 * @param spec the cloud definition: a single file, a comma separated list of
+	 *             files or a directory
+	 * @return the files in the order they should be loaded (the .xml files of a
+	 *         directory are ordered by their names), or null if the spec is not
+	 *         about files
+	 * @throws IllegalArgumentException if some of the listed files do not exist
+	 */
+	static List<String> listCloudFiles(final String spec) {
+		final boolean single = new File(spec).exists();
+		final String[] parts = single ? new String[] { spec } : spec.split(",");
+		if (!single && parts.length == 1) {
+			// Synthetic cloud specification
+			return null;
+		}
+		final List<String> files = new ArrayList<String>();
+		for (String part : parts) {
+			final File f = new File(part.trim());
+			if (f.isDirectory()) {
+				final File[] xmls = f.listFiles(new FilenameFilter() {
+					@Override
+					public boolean accept(File dir, String name) {
+						return name.toLowerCase().endsWith(".xml");
+					}
+				});
+				Arrays.sort(xmls);
+				for (File xml : xmls) {
+					files.add(xml.getPath());
+				}
+			} else if (f.exists()) {
+				files.add(f.getPath());
+			} else {
+				throw new IllegalArgumentException("Cloud description file '" + part + "' does not exist");
+			}
+		}
+		if (files.isEmpty()) {
+			throw new IllegalArgumentException("No cloud descriptions found in '" + spec + "'");
+		}
+		return files;
+	}
 
+	/**
+	 * Sets up and runs a single simulation as specified by the command line
+	 * arguments of this program (see the help of {@link #main(String[])}).
+	 * 
+	 * The statistics printed at the end of the run are also returned so callers
+	 * like {@link ParallelSweepRunner} can collect them.
+	 * 
+	 * @param args the command line arguments (the array might be altered)
+	 * @return the final statistics of the simulation in the order they were
+	 *         printed
+	 * @throws Exception if the simulation could not be set up
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Number> runSimulation(String[] args) throws Exception {
+		// Every simulation starts with fresh metrics
+		MetricsRegistry.global.clear();
 		String consolidatorClass = System.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.consolidator");
 		Class<? extends Consolidator> consolidator = null;
 		if (consolidatorClass != null) {
@@ -145,10 +273,17 @@ public class JobDispatchingDemo {
 
 		// The preparation of the clouds
 		List<IaaSService> iaasList = new ArrayList<IaaSService>();
-		if (new File(args[2]).exists()) {
-			// Loading a single cloud from file (so far only a single cloud is
-			// possible to load)
-			iaasList.add(CloudLoader.loadNodes(args[2]));
+		final List<String> cloudFiles = listCloudFiles(args[2]);
+		if (cloudFiles != null) {
+			// Loading the clouds from files, one after the other. This is not faster
+			// than loading the same clouds in separate runs: CloudLoader registers
+			// the PMs with their IaaS while parsing, and the PM controllers might
+			// switch them on. That reaches Timed, so neither the parsing nor the
+			// construction of the clouds can be done concurrently.
+			for (String cloudFile : cloudFiles) {
+				iaasList.add(CloudLoader.loadNodes(cloudFile));
+			}
+			System.err.println("Loaded " + iaasList.size() + " cloud(s) from file");
 		} else {
 			// Defaults for cloud and core counts
 			int numofCores = 64;
@@ -231,8 +366,12 @@ public class JobDispatchingDemo {
 			for (IaaSService curr : iaasList) {
 				maxTotalProcs += curr.getCapacities().getRequiredCPUs();
 			}
-			producer = FileBasedTraceProducerFactory.getProducerFromFile(args[0], from, to, false, maxTotalProcs,
-					DCFJob.class);
+			if (System.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.traceCache") != null) {
+				producer = CachedTraceProducer.getProducer(args[0], from, to, maxTotalProcs, DCFJob.class);
+			} else {
+				producer = FileBasedTraceProducerFactory.getProducerFromFile(args[0], from, to, false,
+						maxTotalProcs, DCFJob.class);
+			}
 		} else {
 			// The trace comes in the form of generic random trace
 			// characteristics.
@@ -257,7 +396,10 @@ public class JobDispatchingDemo {
 		}
 
 		// Preparing for sending the jobs to the clouds with the dispatcher
-		MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(producer, iaasList);
+		final String streamingWindow = System
+				.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.streamingWindow");
+		MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(producer, iaasList,
+				streamingWindow == null ? 0 : Integer.parseInt(streamingWindow));
 		if (args.length > (doMonitoring ? 4 : 3)) {
 			Thread.sleep(50000);
 		}
@@ -277,28 +419,46 @@ public class JobDispatchingDemo {
 			}
 		}
 		long beforeSimu = Calendar.getInstance().getTimeInMillis();
-		System.err.println(
-				"Job dispatcher (with " + dispatcher.jobs.length + " jobs)  is completely prepared at " + beforeSimu);
+		System.err.println("Job dispatcher (with "
+				+ (dispatcher.streamingWindow > 0 ? "a streamed trace" : dispatcher.jobs.length + " jobs")
+				+ ")  is completely prepared at " + beforeSimu);
 		// Moving the simulator's time just before the first event would come
 		// from the dispatcher
 		Timed.skipEventsTill(dispatcher.getMinsubmittime() * 1000);
 		System.err.println("Current simulation time: " + Timed.getFireCount());
+		StateMonitor monitor = null;
 		if (doMonitoring) {
 			// Final monitoring related CLI arguments parsing
 			final int interval = Integer.parseInt(args[3]);
 			if (interval == 0) {
-				System.err.println("ERROR: Improperly specified energy consumption monitoring interval!");
-				System.exit(1);
+				throw new IllegalArgumentException("Improperly specified energy consumption monitoring interval!");
 			}
 			// Creation of the state monitor object (it will register and
 			// deregister itself with timed once there are no more activites
-			// expected in the cloud, so we don't need to keep its reference)
-			new StateMonitor(args[0], dispatcher, iaasList, interval);
+			// expected in the cloud, we only keep its reference to stop it if the
+			// simulation fails)
+			monitor = new StateMonitor(args[0], dispatcher, iaasList, interval);
+		}
+		final String metricsPeriod = System.getProperty(metricsPeriodProperty);
+		if (metricsPeriod != null) {
+			final long period = Long.parseLong(metricsPeriod);
+			MetricsRegistry.global.startExport(period, System.err);
+			new MetricsExportStopper(dispatcher, iaasList, period);
 		}
 		// Now everything is prepared for launching the simulation
 
 		// The actual simulation
-		Timed.simulateUntilLastEvent();
+		try {
+			Timed.simulateUntilLastEvent();
+		} catch (RuntimeException e) {
+			// Lets the monitor's flusher thread terminate, so a failed simulation
+			// does not keep the JVM (e.g., of a parameter sweep) alive
+			if (monitor != null) {
+				monitor.abort();
+			}
+			MetricsRegistry.global.clear();
+			throw e;
+		}
 		// The simulation is complete all activities have finished by the
 		// dispatcher and monitor
 		long afterSimu = Calendar.getInstance().getTimeInMillis();
@@ -320,5 +480,20 @@ public class JobDispatchingDemo {
 			}
 		}
 		System.err.println("Performance: " + (((double) vmcount) / duration) + " VMs/ms ");
+
+		final Map<String, Number> stats = new LinkedHashMap<String, Number>();
+		stats.put("RealtimeMs", duration);
+		stats.put("SimulatedTimespan", Timed.getFireCount() - dispatcher.getMinsubmittime() * 1000);
+		stats.put("IgnoredJobs", dispatcher.getIgnorecounter());
+		stats.put("DestroyedVMs", dispatcher.getDestroycounter());
+		stats.put("ReusedVMs", dispatcher.reuseCounter);
+		if (consolidator != null) {
+			stats.put("Migrations", SimpleConsolidator.migrationCount);
+		}
+		stats.put("VMsPerMs", ((double) vmcount) / duration);
+		MetricsRegistry.global.printSnapshot(System.err);
+		// The gauges would keep the dispatcher and the clouds reachable otherwise
+		MetricsRegistry.global.clear();
+		return stats;
 	}
 }
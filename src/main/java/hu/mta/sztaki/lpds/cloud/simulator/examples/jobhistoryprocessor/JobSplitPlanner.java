@@ -0,0 +1,215 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+/**
+ * Splits the processors requested by a job into VM requests for the clouds of
+ * a possibly heterogeneous federation. The clouds are taken one after the
+ * other in the order offered by a {@link CloudSelectionPolicy}. Within a
+ * cloud, the PM sizes indexed by the cloud's {@link CloudCapacitySummary} are
+ * filled from the biggest to the smallest: each size receives VMs as big as
+ * its PMs (or smaller if the job needs less), one VM for each of its PMs. The
+ * next cloud is only asked for once all PMs of the previous one are used. For
+ * example, 128 processors on a cloud of one 64 core and several 32 core PMs
+ * are served by one 64 core and two 32 core VMs. The VMs planned for a
+ * particular size share the processors they cover evenly.
+ * 
+ * If all clouds are built from the same number of equally sized PMs, then the
+ * job's processors are shared evenly amongst all its VMs instead, and the VMs
+ * are spread evenly over as few clouds as possible. This is the split the
+ * dispatcher applied before heterogeneous federations were supported (e.g.,
+ * 1000 processors on two clouds of ten 64 core PMs are served by 16 VMs of
+ * 62.5 cores, 8 on each cloud).
+ *
+ * The plan is kept in the planner's arrays, so planning a job does not
+ * allocate. A plan is valid until the next call to {@link #plan}.
+ */
+public class JobSplitPlanner {
+	private final CloudCapacitySummary[] clouds;
+	/**
+	 * The number of cores of the biggest PM in any of the clouds
+	 */
+	private final double maxPMCores;
+	/**
+	 * Set if all clouds have the same number of PMs with the same core counts
+	 */
+	private final boolean uniform;
+	/**
+	 * Marks the clouds that already received a part of the plan under
+	 * construction
+	 */
+	private final boolean[] used;
+	/**
+	 * The parts of the plan: the cloud, the number of VMs and the cores of each
+	 * VM. A cloud can receive a part for each of its PM sizes.
+	 */
+	private final int[] segmentCloud;
+	private final int[] segmentVMs;
+	private final double[] segmentCores;
+	private int segments = 0;
+	private int totalVMs = 0;
+
+	/**
+	 * Prepares the planner for a federation
+	 * 
+	 * @param clouds the summaries of the clouds (with their capacity profiles)
+	 */
+	public JobSplitPlanner(final CloudCapacitySummary[] clouds) {
+		this.clouds = clouds;
+		double max = 0;
+		for (int i = 0; i < clouds.length; i++) {
+			max = Math.max(max, clouds[i].getMaxPMCores());
+		}
+		maxPMCores = max;
+		boolean same = clouds.length > 0;
+		for (int i = 0; i < clouds.length && same; i++) {
+			same = clouds[i].hasUniformPMs() && clouds[i].getMaxPMCores() == max
+					&& clouds[i].hostableVMs(max) == clouds[0].hostableVMs(max);
+		}
+		uniform = same;
+		used = new boolean[clouds.length];
+		int maxSegments = 0;
+		for (int i = 0; i < clouds.length; i++) {
+			maxSegments += Math.max(1, clouds[i].getPMSizeCount());
+		}
+		segmentCloud = new int[maxSegments];
+		segmentVMs = new int[maxSegments];
+		segmentCores = new double[maxSegments];
+	}
+
+	/**
+	 * Determines the VMs to be requested for a job
+	 * 
+	 * @param nprocs the number of processors the job needs
+	 * @param policy decides the order the clouds are filled in
+	 * @return true if the clouds could accommodate the job, false if the job is
+	 *         bigger than all clouds together (the plan is incomplete then)
+	 */
+	public boolean plan(final int nprocs, final CloudSelectionPolicy policy) {
+		segments = 0;
+		totalVMs = 0;
+		for (int i = 0; i < used.length; i++) {
+			used[i] = false;
+		}
+		if (uniform && nprocs > 0) {
+			return planUniform(nprocs, policy);
+		}
+		double remaining = nprocs;
+		for (int tried = 0; remaining > 0 && tried < clouds.length; tried++) {
+			// The policy sees the request as if it was served with the biggest PMs
+			final int estimatedVMs = (int) Math.ceil(remaining / maxPMCores);
+			final int chosen = policy.select(clouds, used, estimatedVMs, remaining / estimatedVMs);
+			used[chosen] = true;
+			final CloudCapacitySummary cloud = clouds[chosen];
+			for (int size = cloud.getPMSizeCount() - 1; remaining > 0 && size >= 0; size--) {
+				final double pmCores = cloud.getPMCores(size);
+				final double vmCores = Math.min(pmCores, remaining);
+				if (vmCores <= 0) {
+					continue;
+				}
+				// The bigger PMs are already used by the previous sizes
+				final int vms = Math.min((int) Math.ceil(remaining / vmCores),
+						cloud.getPMCount(size) * (int) (pmCores / vmCores));
+				if (vms == 0) {
+					continue;
+				}
+				final double covered = Math.min(remaining, vms * vmCores);
+				segmentCloud[segments] = chosen;
+				segmentVMs[segments] = vms;
+				segmentCores[segments++] = covered / vms;
+				totalVMs += vms;
+				remaining -= covered;
+			}
+		}
+		return remaining <= 0;
+	}
+
+	/**
+	 * Shares the job's processors evenly amongst the minimum number of VMs,
+	 * then spreads these VMs evenly over the minimum number of clouds.
+	 */
+	private boolean planUniform(final int nprocs, final CloudSelectionPolicy policy) {
+		final int instances = maxPMCores >= nprocs ? 1 : (int) Math.ceil(nprocs / maxPMCores);
+		final double coresPerVM = (double) nprocs / instances;
+		final int perCloud = clouds[0].hostableVMs(coresPerVM);
+		if (perCloud == 0) {
+			return false;
+		}
+		final int requestedClouds = instances > perCloud ? (int) Math.ceil((double) instances / perCloud) : 1;
+		if (requestedClouds > clouds.length) {
+			return false;
+		}
+		final int uniformSpread = instances / requestedClouds;
+		int remainder = instances % requestedClouds;
+		for (int j = 0; j < requestedClouds; j++) {
+			final int expectedSpread = uniformSpread + remainder;
+			final int vms = Math.min(perCloud, expectedSpread);
+			remainder = expectedSpread - vms;
+			final int chosen = policy.select(clouds, used, vms, coresPerVM);
+			used[chosen] = true;
+			segmentCloud[segments] = chosen;
+			segmentVMs[segments] = vms;
+			segmentCores[segments++] = coresPerVM;
+			totalVMs += vms;
+		}
+		return true;
+	}
+
+	/**
+	 * Tells the number of parts in the plan, there is a part for each PM size
+	 * used on the clouds
+	 */
+	public int getSegmentCount() {
+		return segments;
+	}
+
+	/**
+	 * Tells the cloud of a part of the plan, consecutive parts might target the
+	 * same cloud
+	 * 
+	 * @param segment the part of the plan
+	 * @return the summary of the cloud to receive the VMs
+	 */
+	public CloudCapacitySummary getCloud(final int segment) {
+		return clouds[segmentCloud[segment]];
+	}
+
+	/**
+	 * Tells the number of VMs in a part of the plan
+	 */
+	public int getVMCount(final int segment) {
+		return segmentVMs[segment];
+	}
+
+	/**
+	 * Tells the size of the VMs in a part of the plan
+	 */
+	public double getCoresPerVM(final int segment) {
+		return segmentCores[segment];
+	}
+
+	/**
+	 * Tells the number of VMs in the whole plan
+	 */
+	public int getTotalVMs() {
+		return totalVMs;
+	}
+}
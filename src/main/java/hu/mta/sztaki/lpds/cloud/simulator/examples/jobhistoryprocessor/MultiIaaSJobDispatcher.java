@@ -24,21 +24,22 @@
  */
 package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.MetricsRegistry;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.TimerWheel;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.JobListAnalyser;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.GenericTraceProducer;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.TraceManagementException;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
-import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VMManager;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ConstantConstraints;
@@ -49,7 +50,9 @@ import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
  * A simple trace processor that creates as many VMs in the cloud as many is
  * required to host single jobs (e.g., if the job requires 1024 processors then
  * it will create 16 VMs with 64 cores if the PM with the largest size in the
- * cloud could host 64 core VMs). After the VMs are created the jobs are sent to
+ * cloud could host 64 core VMs). In a federation of clouds with different PMs
+ * the VMs are sized for each cloud separately (see {@link JobSplitPlanner}).
+ * After the VMs are created the jobs are sent to
  * them. After the jobs terminate their hosting VMs are also terminated. The
  * VMIs for the VMs are assumed to be capable of running all the jobs in the
  * trace.
@@ -60,6 +63,16 @@ import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
  *         MTA SZTAKI (c) 2012-5"
  */
 public class MultiIaaSJobDispatcher extends Timed {
+	/**
+	 * Allows others to follow the VMs created by the dispatcher
+	 */
+	public static interface VMRequestListener {
+		/**
+		 * A new VM was requested from one of the clouds for a job. The VM might be
+		 * already placed on a PM by the time this is called.
+		 */
+		void vmRequested(VirtualMachine vm);
+	}
 
 	/**
 	 * Shows if the verbosity is switched on for the simulation run. Allows some
@@ -75,13 +88,48 @@ public class MultiIaaSJobDispatcher extends Timed {
 	 */
 	private boolean isStopped = false;
 	/**
-	 * The list of jobs (i.e., the trace) in a more rapidly processable form
+	 * The list of jobs (i.e., the trace) in a more rapidly processable form. In
+	 * streaming mode this is just a lookahead buffer with the not yet dispatched
+	 * jobs of the trace.
 	 */
 	protected Job[] jobs;
+	/**
+	 * The submission times of the jobs (in ms) in the same order as they are
+	 * listed in {@link #jobs}. Allows the due jobs to be found without touching
+	 * the job objects themselves.
+	 */
+	protected long[] submitMillis;
 	/**
 	 * The first unprocessed job in the trace
 	 */
 	protected int minindex = 0;
+	/**
+	 * The number of valid entries in {@link #jobs} (always equals to the length
+	 * of the array if the trace is not streamed)
+	 */
+	protected int bufferEnd;
+	/**
+	 * The number of jobs fetched from the trace producer in a single go when in
+	 * streaming mode, 0 if the whole trace is loaded in advance.
+	 */
+	protected final int streamingWindow;
+	/**
+	 * The source of further jobs in streaming mode
+	 */
+	private GenericTraceProducer producer;
+	/**
+	 * Set when the trace producer offers no more jobs
+	 */
+	private boolean traceExhausted = false;
+	/**
+	 * The amount of seconds every job of the trace was shifted with (to avoid
+	 * having jobs in the past)
+	 */
+	private long adjustTime = 0;
+	/**
+	 * The number of jobs processed from the trace so far
+	 */
+	private long processedJobs = 0;
 	/**
 	 * the iaas services to be used for executing the jobs
 	 */
@@ -91,9 +139,46 @@ public class MultiIaaSJobDispatcher extends Timed {
 	 */
 	protected List<Repository> repo;
 	/**
-	 * the list of Virtual Machine keepers - the list of VMs that might be alive
+	 * the index of Virtual Machine keepers with VMs that are alive but unused at
+	 * the moment
 	 */
-	protected Set<VMKeeper> pooledVMs = new TreeSet<VMKeeper>(VMKeeper.compareKeepers);
+	protected final FreeVMIndex freeVMs = new FreeVMIndex();
+	/**
+	 * Maintains the free VM index as the keepers release or lose their VMs
+	 */
+	private final VMKeeper.ReleaseListener freeVMTracker = new VMKeeper.ReleaseListener() {
+		@Override
+		public void released(VMKeeper me) {
+			freeVMs.add(me);
+		}
+
+		@Override
+		public void terminated(VMKeeper me) {
+			freeVMs.remove(me);
+			summaryOf.get(me.getCloud()).vmTerminated(me.getCores());
+		}
+	};
+	/**
+	 * Tracks the billing periods of all the VMKeepers of the dispatcher
+	 */
+	private final TimerWheel keeperTimers = new TimerWheel();
+	/**
+	 * Those who should know about the new VMs of the dispatcher
+	 */
+	private final ArrayList<VMRequestListener> vmRequestListeners = new ArrayList<VMRequestListener>();
+	/**
+	 * Shares the resource constraints amongst the VM requests of the jobs
+	 */
+	private final ConstraintsCache constraintsCache = new ConstraintsCache(64);
+	/**
+	 * Keeper arrays of the finished jobs, ready for reuse. The arrays are
+	 * pooled by their length (the index of the list).
+	 */
+	private final ArrayList<ArrayDeque<VMKeeper[]>> keeperArrayPool = new ArrayList<ArrayDeque<VMKeeper[]>>();
+	/**
+	 * Job runners that have finished with their jobs and could take new ones
+	 */
+	private final ArrayDeque<SingleJobRunner> idleRunners = new ArrayDeque<SingleJobRunner>();
 	/**
 	 * the virtual appliance that will be used as the generic image for each VM in
 	 * the clouds
@@ -103,14 +188,6 @@ public class MultiIaaSJobDispatcher extends Timed {
 	 * the first submission time
 	 */
 	protected long minsubmittime;
-	/**
-	 * maximum number of cores in the biggest physical machine
-	 */
-	protected long maxmachinecores = 0;
-	/**
-	 * maximum number of physical machines
-	 */
-	protected long maxIaaSmachines = 0;
 	/**
 	 * number of jobs ignored
 	 */
@@ -121,21 +198,46 @@ public class MultiIaaSJobDispatcher extends Timed {
 	protected long destroycounter = 0;
 	/**
 	 * the default processing power share to be requested during the resource
-	 * allocation for the VMs - allows under-provisioning
+	 * allocation for the VMs - allows under-provisioning. Only used if set via
+	 * {@link #setUsableProcPower(double, boolean)}, otherwise the VMs request the
+	 * processing power of the slowest PM of their cloud.
 	 */
 	protected double useThisProcPower = Double.MAX_VALUE;
+	/**
+	 * Tells if {@link #useThisProcPower} was set explicitly
+	 */
+	private boolean usableProcPowerSet = false;
 	/**
 	 * the processing power specified before for the single core of the VM should be
 	 * guaranteed
 	 */
 	protected boolean isMinimumProcPower = false;
 	/**
-	 * current IaaS service to be used for VM creation
+	 * The load summaries of the target clouds (in the order of {@link #target})
+	 */
+	protected CloudCapacitySummary[] summaries;
+	/**
+	 * Finds the summary of a target cloud
+	 */
+	private final IdentityHashMap<IaaSService, CloudCapacitySummary> summaryOf = new IdentityHashMap<IaaSService, CloudCapacitySummary>();
+	/**
+	 * Decides which target cloud receives the next VM request
+	 */
+	private CloudSelectionPolicy selectionPolicy = CloudSelectionPolicy.fromSystemProperties();
+	/**
+	 * Decides how the processors of a job are split into VMs and clouds
 	 */
-	private int targetIndex = 0;
+	private final JobSplitPlanner planner;
 
 	public int reuseCounter = 0;
 
+	/**
+	 * The number of job runners and keeper arrays created so far (i.e., those
+	 * that could not be served from the pools)
+	 */
+	int createdRunners = 0;
+	int createdKeeperArrays = 0;
+
 	public int actualVMCount = 0;
 
 	/**
@@ -145,50 +247,71 @@ public class MultiIaaSJobDispatcher extends Timed {
 	 * characteristics of each IaaS, while the preparatory step ensures the
 	 * availability of the VA to be used for instantiating the VMs for the jobs.
 	 * 
-	 * WARNING: only uniformly prepared IaaS systems are supported right now (i.e.
-	 * all of them having the same amount of PMs and all of their PMs are
-	 * constructed with the same amount of resources)
+	 * The clouds do not need to be uniform, their PMs are profiled one by one
+	 * (see {@link CloudCapacitySummary}).
 	 * 
 	 * @param producer the trace
 	 * @param target   the iaas systems to be used for submitting the trace to
 	 */
 	public MultiIaaSJobDispatcher(GenericTraceProducer producer, List<IaaSService> target)
 			throws TraceManagementException {
+		this(producer, target, 0);
+	}
+
+	/**
+	 * Dispatcher setup with the possibility of streaming the trace. In streaming
+	 * mode, the jobs are fetched from the producer in windows and only a bounded
+	 * lookahead buffer of them is kept in memory. Jobs are forgotten by the
+	 * dispatcher once they are sent to the clouds, so the memory use does not
+	 * depend on the length of the trace.
+	 * 
+	 * Note: the trace is expected to be (roughly) ordered by submission time. The
+	 * windows are sorted individually, jobs that arrive in a later window than
+	 * their submission time would allow are submitted as soon as they are read.
+	 * 
+	 * @param producer        the trace
+	 * @param target          the iaas systems to be used for submitting the trace
+	 *                        to
+	 * @param streamingWindow the number of jobs to fetch from the producer in one
+	 *                        go, if 0 then the complete trace is loaded at once
+	 */
+	public MultiIaaSJobDispatcher(GenericTraceProducer producer, List<IaaSService> target, int streamingWindow)
+			throws TraceManagementException {
 		this.target = target;
+		this.streamingWindow = streamingWindow;
 		// Collecting the jobs
-		List<Job> jobs = producer.getAllJobs();
+		List<Job> jobs = streamingWindow > 0 ? producer.getJobs(streamingWindow) : producer.getAllJobs();
 
 		// Ensuring they are listed in submission order
 		Collections.sort(jobs, JobListAnalyser.submitTimeComparator);
 		// Analyzing the jobs for min and max submission time
 		minsubmittime = JobListAnalyser.getEarliestSubmissionTime(jobs);
-		// Transforming the job list for rapid access arrays:
-		this.jobs = jobs.toArray(new Job[jobs.size()]);
-		jobs.clear();
+		if (streamingWindow > 0) {
+			// Only the first window is loaded, the rest comes when it is due
+			this.producer = producer;
+			this.jobs = new Job[2 * streamingWindow];
+			submitMillis = new long[2 * streamingWindow];
+			bufferEnd = 0;
+			traceExhausted = jobs.isEmpty();
+		} else {
+			// Transforming the job list for rapid access arrays:
+			this.jobs = jobs.toArray(new Job[jobs.size()]);
+			jobs.clear();
+		}
 
 		// Preparing the repositories with VAs
 		repo = new ArrayList<Repository>(target.size());
+		summaries = new CloudCapacitySummary[target.size()];
 		va = new VirtualAppliance("test", 30, 0, false, 100000000);
 		for (IaaSService iaas : target) {
 			Repository currentRepo = iaas.repositories.get(0);
+			summaries[repo.size()] = new CloudCapacitySummary(iaas, currentRepo);
+			summaryOf.put(iaas, summaries[repo.size()]);
 			repo.add(currentRepo);
 			// actually registering the VA
 			currentRepo.registerObject(va);
-			// determining the maximum number of CPU cores available in a PM
-			for (PhysicalMachine pm : iaas.machines) {
-				double cores = pm.getCapacities().getRequiredCPUs();
-				double pp = pm.getCapacities().getRequiredProcessingPower();
-				if (cores > maxmachinecores) {
-					maxmachinecores = (long) cores;
-				}
-				if (pp < useThisProcPower) {
-					useThisProcPower = pp;
-				}
-			}
-			if (iaas.machines.size() > maxIaaSmachines) {
-				maxIaaSmachines = iaas.machines.size();
-			}
 		}
+		planner = new JobSplitPlanner(summaries);
 
 		// Ensuring we will receive a notification once the first job should be
 		// submitted
@@ -196,14 +319,32 @@ public class MultiIaaSJobDispatcher extends Timed {
 		final long currentTime = Timed.getFireCount();
 		final long msTime = minsubmittime * 1000;
 		if (currentTime > msTime) {
-			final long adjustTime = (long) Math.ceil((currentTime - msTime) / 1000f);
+			adjustTime = (long) Math.ceil((currentTime - msTime) / 1000f);
 			minsubmittime += adjustTime;
-			for (Job job : this.jobs) {
-				job.adjust(adjustTime);
+		}
+		if (streamingWindow > 0) {
+			if (adjustTime > 0) {
+				for (Job job : jobs) {
+					job.adjust(adjustTime);
+				}
 			}
+			loadWindow(jobs, currentTime);
+			fillBuffer(currentTime);
+		} else {
+			if (adjustTime > 0) {
+				for (Job job : this.jobs) {
+					job.adjust(adjustTime);
+				}
+			}
+			submitMillis = new long[this.jobs.length];
+			for (int i = 0; i < submitMillis.length; i++) {
+				submitMillis[i] = this.jobs[i].getSubmittimeSecs() * 1000;
+			}
+			bufferEnd = this.jobs.length;
 		}
 
 		subscribe(minsubmittime * 1000 - currentTime);
+		registerMetrics();
 		if (verbosity) {
 			new Thread() {
 				private void printLog(String s) {
@@ -212,7 +353,7 @@ public class MultiIaaSJobDispatcher extends Timed {
 
 				private void printStats() {
 					printLog("subscibed=" + MultiIaaSJobDispatcher.this.isSubscribed() + " simTime="
-							+ Timed.getFireCount() + " destroys=" + getDestroycounter() + " startedjobs=" + minindex);
+							+ Timed.getFireCount() + " destroys=" + getDestroycounter() + " startedjobs=" + processedJobs);
 				}
 
 				public void run() {
@@ -251,158 +392,341 @@ public class MultiIaaSJobDispatcher extends Timed {
 	}
 
 	/**
-	 * Handling the jobs one by one when they are due.
+	 * Fetches further windows of jobs from the producer if the lookahead buffer
+	 * runs low (only in streaming mode).
+	 * 
+	 * @param notBefore the earliest time the newly loaded jobs can be submitted
+	 */
+	private void fillBuffer(final long notBefore) {
+		while (streamingWindow > 0 && !traceExhausted && bufferEnd - minindex < streamingWindow) {
+			final List<Job> window;
+			try {
+				window = producer.getJobs(streamingWindow);
+			} catch (TraceManagementException e) {
+				throw new RuntimeException("Could not fetch the next window of jobs from the trace", e);
+			}
+			if (window.isEmpty()) {
+				traceExhausted = true;
+			} else {
+				Collections.sort(window, JobListAnalyser.submitTimeComparator);
+				if (adjustTime > 0) {
+					for (Job job : window) {
+						job.adjust(adjustTime);
+					}
+				}
+				loadWindow(window, notBefore);
+			}
+		}
+	}
+
+	/**
+	 * Merges a sorted window of jobs to the not yet dispatched part of the
+	 * lookahead buffer. The already dispatched jobs are dropped from the buffer
+	 * in the process.
+	 * 
+	 * @param window    the new jobs ordered by their submission time, the list is
+	 *                  cleared after the merge
+	 * @param notBefore the earliest time the new jobs can be submitted (jobs
+	 *                  arriving late are submitted at this time)
+	 */
+	private void loadWindow(final List<Job> window, final long notBefore) {
+		final int remaining = bufferEnd - minindex;
+		final int total = remaining + window.size();
+		if (total > jobs.length) {
+			jobs = Arrays.copyOf(jobs, total);
+			submitMillis = Arrays.copyOf(submitMillis, total);
+		}
+		// Compacting the buffer so the dispatched jobs are released
+		System.arraycopy(jobs, minindex, jobs, 0, remaining);
+		System.arraycopy(submitMillis, minindex, submitMillis, 0, remaining);
+		Arrays.fill(jobs, remaining, Math.max(bufferEnd, remaining), null);
+		minindex = 0;
+		// Merging from the back so no temporary arrays are needed
+		int i = remaining - 1;
+		int j = window.size() - 1;
+		int k = total - 1;
+		while (j >= 0) {
+			final Job newJob = window.get(j);
+			final long newSubmit = Math.max(notBefore, newJob.getSubmittimeSecs() * 1000);
+			if (i >= 0 && submitMillis[i] > newSubmit) {
+				jobs[k] = jobs[i];
+				submitMillis[k--] = submitMillis[i--];
+			} else {
+				jobs[k] = newJob;
+				submitMillis[k--] = newSubmit;
+				j--;
+			}
+		}
+		bufferEnd = total;
+		window.clear();
+	}
+
+	/**
+	 * Handling the jobs when they are due. The jobs due at the current time form
+	 * a contiguous batch starting at {@link #minindex}, so the batch is delimited
+	 * with a search in {@link #submitMillis} and then dispatched job by job.
+	 * Finally, the next event is set to the submission time of the first job
+	 * after the batch.
 	 */
 	@Override
 	public void tick(final long currTime) {
-		// One ore more jobs must be submitted as we received this event
-		for (int i = minindex; i < jobs.length; i++) {
-			final Job toprocess = jobs[i];
-			long submittime = toprocess.getSubmittimeSecs() * 1000;
-			if (currTime == submittime) {
+		fillBuffer(currTime);
+		final int batchEnd = findBatchEnd(minindex, currTime);
+		for (int i = minindex; i < batchEnd; i++) {
+			if (submitMillis[i] == currTime) {
 				// the ith job is due now
-				boolean retry;
-				do {
-					retry = false;
-					// to fulfill the ith job's cpu core requirements we need the
-					// following set of VMs with the following number of CPUs
-					int requestedTotalInstances = maxmachinecores >= toprocess.nprocs ? 1
-							: (toprocess.nprocs / ((int) maxmachinecores))
-									+ ((toprocess.nprocs % (int) maxmachinecores) == 0 ? 0 : 1);
-					final double requestedprocs = (double) toprocess.nprocs / requestedTotalInstances;
-					ConstantConstraints reqRC = new ConstantConstraints(requestedprocs, useThisProcPower,
-							isMinimumProcPower, 512000000);
-					// For simplicity, here we have an assumption that our clouds
-					// are uniform...
-					int requestedClouds = (int) Math.ceil(requestedTotalInstances > maxIaaSmachines
-							? (double) requestedTotalInstances / maxIaaSmachines
-							: 1);
-					if (requestedClouds <= target.size()) {
-						// We have a chance to fit the job request in
-
-						// Clean up the VM keeper list of ours
-						Iterator<VMKeeper> it = pooledVMs.iterator();
-						while (it.hasNext()) {
-							VMKeeper curr = it.next();
-							if (!curr.isAlive()) {
-								it.remove();
-							}
-						}
+				dispatchJob(jobs[i], processedJobs + i - minindex);
+			}
+		}
+		processedJobs += batchEnd - minindex;
+		minindex = batchEnd;
+		// Jobs read now are late for the current time instance
+		fillBuffer(currTime + 1);
+		if (minindex == bufferEnd) {
+			// No more jobs are listed in the trace, we can just make sure no
+			// further events are coming to this dispatcher
+			unsubscribe();
+		} else {
+			// the next job is not due yet, we have to ask for a new
+			// notification which will arrive when it is due
+			updateFrequency(submitMillis[minindex] - currTime);
+		}
+	}
 
-						int vmpointer = 0;
-						VMKeeper[] vms = new VMKeeper[requestedTotalInstances];
-
-						// Make sure the smallest VMs are listed first
-						// This ensures we leave the smallest amount of unused resources in the VMs
-						it = pooledVMs.iterator();
-						while (it.hasNext() && requestedTotalInstances > 0) {
-							VMKeeper current = it.next();
-							if (current.isFree() && current.wouldFit(reqRC)) {
-								reuseCounter++;
-								it.remove();
-								vms[vmpointer++] = current;
-								requestedTotalInstances--;
-								retry = true;
-							}
-						}
+	/**
+	 * Determines the end of the batch of jobs that are due at a particular time
+	 * instance. First it gallops forward from the cursor to bound the batch, then
+	 * it uses binary search within the bounds. Thus the cost of the search is
+	 * logarithmic in the size of the batch and not in the size of the trace.
+	 * 
+	 * @param from     the first job that is not yet processed
+	 * @param currTime the time instance for which the due jobs are searched for
+	 * @return the index of the first job that is due after currTime (or
+	 *         {@link #bufferEnd} if there are no such jobs)
+	 */
+	private int findBatchEnd(final int from, final long currTime) {
+		final int len = bufferEnd;
+		int lo = from;
+		int step = 1;
+		int hi = from;
+		while (hi < len && submitMillis[hi] <= currTime) {
+			lo = hi + 1;
+			hi = from + step;
+			step <<= 1;
+		}
+		if (hi > len) {
+			hi = len;
+		}
+		// Now the batch end is in [lo, hi]
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (submitMillis[mid] <= currTime) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
 
-						if (requestedTotalInstances > 0) {
-							// recalculate requested clouds after reusing VMs
-							requestedClouds = (int) Math.ceil(requestedTotalInstances > maxIaaSmachines
-									? (double) requestedTotalInstances / maxIaaSmachines
-									: 1);
-
-							final int uniformSpread = requestedTotalInstances / requestedClouds;
-							int remainder = requestedTotalInstances % requestedClouds;
-
-							for (int j = 0; j < requestedClouds; j++) {
-								final int expectedSpread = uniformSpread + remainder;
-								final int currentRequestSize = (int) Math.min(maxIaaSmachines, expectedSpread);
-								remainder = expectedSpread - currentRequestSize;
-								// Starting the VMs for the job
-								try {
-									IaaSService currentTarget = target.get(targetIndex);
-									final VirtualMachine[] vmsTemp = currentTarget.requestVM(va, reqRC,
-											repo.get(targetIndex), currentRequestSize);
-									for (int k = 0; k < currentRequestSize; k++) {
-										VMKeeper newKeeper = new VMKeeper(currentTarget, vmsTemp[k], 3600 * 1000);
-										newKeeper.setListener(new VMKeeper.ReleaseListener() {
-
-											@Override
-											public void released(VMKeeper me) {
-												pooledVMs.add(me);
-											}
-										});
-										vms[vmpointer++] = newKeeper;
+	/**
+	 * Exposes the dispatcher's counters in the {@link MetricsRegistry#global}
+	 * registry, so they can be exported while the simulation runs.
+	 */
+	private void registerMetrics() {
+		final MetricsRegistry reg = MetricsRegistry.global;
+		reg.gauge("dispatcher.startedJobs", new MetricsRegistry.Gauge() {
+			@Override
+			public double value() {
+				return processedJobs;
+			}
+		});
+		reg.gauge("dispatcher.ignoredJobs", new MetricsRegistry.Gauge() {
+			@Override
+			public double value() {
+				return ignorecounter;
+			}
+		});
+		reg.gauge("dispatcher.destroyedVMs", new MetricsRegistry.Gauge() {
+			@Override
+			public double value() {
+				return destroycounter;
+			}
+		});
+		reg.gauge("dispatcher.reusedVMs", new MetricsRegistry.Gauge() {
+			@Override
+			public double value() {
+				return reuseCounter;
+			}
+		});
+		reg.gauge("dispatcher.freeVMs", new MetricsRegistry.Gauge() {
+			@Override
+			public double value() {
+				return freeVMs.size();
+			}
+		});
+	}
 
-									}
+	/**
+	 * Sends a single job to the clouds: reuses the kept VMs that could host it
+	 * and creates the rest of the VMs needed for the job.
+	 * 
+	 * @param toprocess the job that is due
+	 * @param i         the index of the job in the trace (used for logging only)
+	 */
+	private void dispatchJob(final Job toprocess, final long i) {
+		boolean retry;
+		do {
+			retry = false;
+			// to fulfill the ith job's cpu core requirements we need the
+			// following set of VMs on the following clouds
+			if (planner.plan(toprocess.nprocs, selectionPolicy)) {
+				// We have a chance to fit the job request in
+
+				int vmpointer = 0;
+				final VMKeeper[] vms = borrowKeeperArray(planner.getTotalVMs());
+
+				for (int s = 0; s < planner.getSegmentCount(); s++) {
+					final CloudCapacitySummary chosen = planner.getCloud(s);
+					final double requestedprocs = planner.getCoresPerVM(s);
+					final ConstantConstraints reqRC = constraintsCache.get(requestedprocs,
+							usableProcPowerSet ? useThisProcPower : chosen.getMinProcessingPower(),
+							isMinimumProcPower, 512000000);
+					int requestedInstances = planner.getVMCount(s);
+
+					// The index offers the smallest VMs first
+					// This ensures we leave the smallest amount of unused resources in the VMs
+					VMKeeper current;
+					while (requestedInstances > 0 && (current = freeVMs.take(reqRC)) != null) {
+						reuseCounter++;
+						vms[vmpointer++] = current;
+						requestedInstances--;
+						retry = true;
+					}
 
-									// doing a round robin scheduling for the target
-									// infrastructures
-									targetIndex++;
-									if (targetIndex == target.size()) {
-										targetIndex = 0;
-									}
-								} catch (VMManager.VMManagementException e) {
-									// VM cannot be served because of too large resource
-									// request
-									if (verbosity) {
-										System.err
-												.println("The oversized job's id: " + toprocess.getId() + " idx: " + i);
-									}
-									ignorecounter++;
-								} catch (Exception e) {
-									System.err.println("Unknown VM creation error: " + e.getMessage());
-									e.printStackTrace();
-									ignorecounter++;
+					if (requestedInstances > 0) {
+						// Starting the VMs for the job
+						try {
+							final IaaSService currentTarget = chosen.cloud;
+							final VirtualMachine[] vmsTemp = currentTarget.requestVM(va, reqRC, chosen.repo,
+									requestedInstances);
+							chosen.vmsRequested(requestedInstances, requestedprocs);
+							for (int k = 0; k < requestedInstances; k++) {
+								for (int l = 0; l < vmRequestListeners.size(); l++) {
+									vmRequestListeners.get(l).vmRequested(vmsTemp[k]);
 								}
+								VMKeeper newKeeper = new VMKeeper(currentTarget, vmsTemp[k], requestedprocs,
+										3600 * 1000, keeperTimers);
+								newKeeper.setListener(freeVMTracker);
+								vms[vmpointer++] = newKeeper;
+
 							}
-						}
-						boolean servability = true;
-						for (int j = 0; j < vms.length && servability; j++) {
-							// check if the job was not servable because it would
-							// have needed more resources than the target clouds
-							// could offer in total.
-							if (vms[j] == null) {
-								servability = false;
-							} else {
-								servability &= vms[j].isServable();
-							}
-						}
-						if (servability) {
-							retry = false;
-							new SingleJobRunner(toprocess, vms, this);
-						} else {
-							for (int j = 0; j < vms.length; j++) {
-								if (vms[j] != null && vms[j].isServable()) {
-									vms[j].prematureDestroy();
-								}
+						} catch (VMManager.VMManagementException e) {
+							// VM cannot be served because of too large resource
+							// request
+							if (verbosity) {
+								System.err
+										.println("The oversized job's id: " + toprocess.getId() + " idx: " + i);
 							}
 							ignorecounter++;
+						} catch (Exception e) {
+							System.err.println("Unknown VM creation error: " + e.getMessage());
+							e.printStackTrace();
+							ignorecounter++;
 						}
+					}
+				}
+				boolean servability = true;
+				for (int j = 0; j < vms.length && servability; j++) {
+					// check if the job was not servable because it would
+					// have needed more resources than the target clouds
+					// could offer in total.
+					if (vms[j] == null) {
+						servability = false;
+					} else {
+						servability &= vms[j].isServable();
+					}
+				}
+				if (servability) {
+					retry = false;
+					final SingleJobRunner runner = idleRunners.pollFirst();
+					if (runner == null) {
+						createdRunners++;
+						new SingleJobRunner(this).runJob(toprocess, vms);
 					} else {
-						if (verbosity) {
-							System.err
-									.println("Bigger job than all clouds. Job id: " + toprocess.getId() + " idx: " + i);
+						runner.runJob(toprocess, vms);
+					}
+				} else {
+					for (int j = 0; j < vms.length; j++) {
+						if (vms[j] != null && vms[j].isServable()) {
+							vms[j].prematureDestroy();
 						}
-						ignorecounter++;
 					}
-				} while (retry);
-				minindex = i + 1;
-			} else if (currTime < submittime) {
-				// the ith job is not due yet, we have to ask for a new
-				// notification which will arrive when the ith job is due
-				updateFrequency(submittime - currTime);
-				break;
+					returnKeeperArray(vms);
+					ignorecounter++;
+				}
+			} else {
+				if (verbosity) {
+					System.err
+							.println("Bigger job than all clouds. Job id: " + toprocess.getId() + " idx: " + i);
+				}
+				ignorecounter++;
+			}
+		} while (retry);
+	}
+
+	/**
+	 * Offers an empty keeper array from the pool, or creates a new one if the
+	 * pool has no arrays of the requested length.
+	 * 
+	 * @param length the number of VMs the array should hold
+	 * @return an array with all its elements set to null
+	 */
+	VMKeeper[] borrowKeeperArray(final int length) {
+		if (length < keeperArrayPool.size()) {
+			final VMKeeper[] pooled = keeperArrayPool.get(length).pollFirst();
+			if (pooled != null) {
+				return pooled;
 			}
 		}
-		if (minindex == jobs.length)
+		createdKeeperArrays++;
+		return new VMKeeper[length];
+	}
 
-		{
-			// No more jobs are listed in the trace, we can just make sure no
-			// further events are coming to this dispatcher
-			unsubscribe();
+	/**
+	 * Puts a keeper array back to the pool
+	 * 
+	 * @param keepers the array that is no longer used, its contents are cleared
+	 */
+	void returnKeeperArray(final VMKeeper[] keepers) {
+		for (int i = 0; i < keepers.length; i++) {
+			keepers[i] = null;
+		}
+		while (keeperArrayPool.size() <= keepers.length) {
+			keeperArrayPool.add(new ArrayDeque<VMKeeper[]>());
 		}
+		keeperArrayPool.get(keepers.length).offerFirst(keepers);
+	}
+
+	/**
+	 * Allows single job runners to return themselves and their keeper arrays
+	 * once their job is over (either completed or its VMs did not start in time).
+	 * 
+	 * @param runner  the runner that is ready for a new job
+	 * @param keepers the keeper array the runner no longer uses
+	 */
+	void runnerFinished(final SingleJobRunner runner, final VMKeeper[] keepers) {
+		returnKeeperArray(keepers);
+		idleRunners.offerFirst(runner);
+	}
+
+	/**
+	 * Allows to receive notifications about all VMs requested after this call
+	 * 
+	 * @param listener the object to be notified
+	 */
+	public void addVMRequestListener(final VMRequestListener listener) {
+		vmRequestListeners.add(listener);
 	}
 
 	/**
@@ -456,9 +780,20 @@ public class MultiIaaSJobDispatcher extends Timed {
 	 */
 	public void setUsableProcPower(final double usableProcPower, final boolean minimum) {
 		this.useThisProcPower = usableProcPower;
+		usableProcPowerSet = true;
 		isMinimumProcPower = minimum;
 	}
 
+	/**
+	 * Changes the way the target cloud is chosen for the VM requests of the jobs
+	 * (by default it is determined by {@link CloudSelectionPolicy#policyProperty})
+	 * 
+	 * @param policy the policy to use for the upcoming requests
+	 */
+	public void setCloudSelectionPolicy(final CloudSelectionPolicy policy) {
+		selectionPolicy = policy;
+	}
+
 	/**
 	 * Do not continue the trace processing, terminate all activities as soon as
 	 * possible.
@@ -0,0 +1,248 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.CachedTraceProducer;
+
+/**
+ * Runs several simulations concurrently in a single JVM. As the simulator keeps
+ * its clock in static fields, every simulation is loaded with its own class
+ * loader, so each of them has its own copy of the simulator's (and the
+ * examples') static state.
+ *
+ * The simulations are configured with a sweep file where every non empty line
+ * (not starting with #) lists the whitespace separated command line arguments
+ * of a single run. The simulations are started via a
+ * <code>public static Map&lt;String, Number&gt; runSimulation(String[])</code>
+ * function of the simulation class (see
+ * {@link JobDispatchingDemo#runSimulation(String[])}), or via its main function
+ * if there is no such function (then only the runtime is recorded). Once all
+ * runs are complete the collected statistics are printed as a tab separated
+ * table to the standard output. A failing simulation (i.e., one throwing an
+ * exception) is reported as FAILED, the other runs of the sweep continue.
+ * Simulations that call System.exit still terminate the whole sweep, the
+ * simulation paths of the examples throw exceptions instead.
+ *
+ * Objects cannot be shared amongst the class loaders, thus the traces and cloud
+ * specifications are shared through the file system: if the
+ * hu.mta.sztaki.lpds.cloud.simulator.examples.traceCache property is set, the
+ * first run parsing a trace file writes its binary cache (see
+ * {@link CachedTraceProducer}) and later runs just map it. Also, system
+ * properties are common for all runs of a sweep.
+ */
+public class ParallelSweepRunner {
+	/**
+	 * The class path used to load the simulations (the same as the one for the
+	 * runner).
+	 */
+	private final URL[] classPath;
+	/**
+	 * The class to run with the arguments of the sweep
+	 */
+	private final String simulationClass;
+
+	public ParallelSweepRunner(final String simulationClass) throws Exception {
+		this.simulationClass = simulationClass;
+		final String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+		classPath = new URL[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			classPath[i] = new File(entries[i]).toURI().toURL();
+		}
+	}
+
+	/**
+	 * Executes a single simulation in a fresh class loader
+	 *
+	 * @param args the command line arguments of the simulation
+	 * @return the statistics reported by the simulation
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Number> runIsolated(final String[] args) throws Exception {
+		// The parent is the loader above the application class loader, so none of
+		// the simulator classes are shared with the other runs
+		final URLClassLoader loader = new URLClassLoader(classPath, ClassLoader.getSystemClassLoader().getParent());
+		final Thread current = Thread.currentThread();
+		final ClassLoader previous = current.getContextClassLoader();
+		current.setContextClassLoader(loader);
+		try {
+			final Class<?> simulation = Class.forName(simulationClass, true, loader);
+			try {
+				final Method run = simulation.getMethod("runSimulation", String[].class);
+				return (Map<String, Number>) run.invoke(null, (Object) args);
+			} catch (NoSuchMethodException e) {
+				final long before = System.currentTimeMillis();
+				simulation.getMethod("main", String[].class).invoke(null, (Object) args);
+				final Map<String, Number> stats = new LinkedHashMap<String, Number>();
+				stats.put("RealtimeMs", System.currentTimeMillis() - before);
+				return stats;
+			}
+		} catch (InvocationTargetException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		} finally {
+			current.setContextClassLoader(previous);
+			// The simulator's static state keeps the loader's classes reachable as long
+			// as the loader is, so its jar handles are released explicitly
+			loader.close();
+		}
+	}
+
+	/**
+	 * Runs all configurations of a sweep
+	 *
+	 * @param configurations the command line arguments for each simulation
+	 * @param threads        the number of simulations to run concurrently
+	 * @return the statistics of the simulations (in the order of the
+	 *         configurations), null entries mark failed simulations
+	 */
+	public List<Map<String, Number>> runSweep(final List<String[]> configurations, final int threads)
+			throws InterruptedException {
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Map<String, Number>>> futures = new ArrayList<Future<Map<String, Number>>>();
+			for (final String[] config : configurations) {
+				futures.add(pool.submit(new Callable<Map<String, Number>>() {
+					@Override
+					public Map<String, Number> call() throws Exception {
+						return runIsolated(config.clone());
+					}
+				}));
+			}
+			final List<Map<String, Number>> results = new ArrayList<Map<String, Number>>(futures.size());
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					System.err.println("Simulation " + i + " failed: " + e.getCause());
+					e.getCause().printStackTrace();
+					results.add(null);
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Reads the configurations of a sweep
+	 *
+	 * @param sweepFile the file listing the arguments of each run in its lines
+	 * @return the argument arrays of the runs
+	 */
+	public static List<String[]> readSweepFile(final String sweepFile) throws Exception {
+		final ArrayList<String[]> configs = new ArrayList<String[]>();
+		final BufferedReader br = new BufferedReader(new FileReader(sweepFile));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					configs.add(line.split("\\s+"));
+				}
+			}
+		} finally {
+			br.close();
+		}
+		return configs;
+	}
+
+	/**
+	 * Prints the results of a sweep as a tab separated table. The columns are
+	 * the union of the statistics reported by the runs.
+	 */
+	private static void printTable(final List<String[]> configurations, final List<Map<String, Number>> results) {
+		final LinkedHashSet<String> columns = new LinkedHashSet<String>();
+		for (Map<String, Number> r : results) {
+			if (r != null) {
+				columns.addAll(r.keySet());
+			}
+		}
+		final StringBuilder sb = new StringBuilder("Configuration");
+		for (String c : columns) {
+			sb.append('\t').append(c);
+		}
+		System.out.println(sb);
+		for (int i = 0; i < configurations.size(); i++) {
+			sb.setLength(0);
+			final String[] config = configurations.get(i);
+			for (int j = 0; j < config.length; j++) {
+				sb.append(j == 0 ? "" : " ").append(config[j]);
+			}
+			final Map<String, Number> r = results.get(i);
+			for (String c : columns) {
+				final Number value = r == null ? null : r.get(c);
+				sb.append('\t').append(value == null ? (r == null ? "FAILED" : "") : value.toString());
+			}
+			System.out.println(sb);
+		}
+	}
+
+	/**
+	 * Runs a parameter sweep.
+	 *
+	 * list of CLI arguments:
+	 * <ol>
+	 * <li>The sweep file (one simulation's arguments in each line)</li>
+	 * <li>(optional) The class of the simulation, defaults to
+	 * {@link JobDispatchingDemo}</li>
+	 * <li>(optional) The number of simulations to run in parallel, defaults to
+	 * the number of available processors</li>
+	 * </ol>
+	 *
+	 * @param args the CLI arguments
+	 * @throws Exception if the sweep file cannot be read
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Expected parameters:");
+			System.out.println("1. sweep file: every line lists the parameters of a single simulation");
+			System.out.println("2. (optional) simulation class, default: " + JobDispatchingDemo.class.getName());
+			System.out.println("3. (optional) parallel simulations, default: number of processors");
+			System.exit(0);
+		}
+		final List<String[]> configs = readSweepFile(args[0]);
+		final String simClass = args.length > 1 ? args[1] : JobDispatchingDemo.class.getName();
+		final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		final long before = System.currentTimeMillis();
+		final List<Map<String, Number>> results = new ParallelSweepRunner(simClass).runSweep(configs, threads);
+		System.err.println("Sweep of " + configs.size() + " simulations took "
+				+ (System.currentTimeMillis() - before) + "ms");
+		printTable(configs, results);
+	}
+}
@@ -40,34 +40,58 @@ public class SingleJobRunner implements VirtualMachine.StateChange, ConsumptionE
 	}
 	private Job toProcess;
 	private VMKeeper[] keeperSet;
-	private VirtualMachine[] vmSet;
-	private MultiIaaSJobDispatcher parent;
+	private final MultiIaaSJobDispatcher parent;
 	private int readyVMCounter = 0;
 	private int completionCounter = 0;
-	private DeferredEvent timeout = new DeferredEvent(startupTimeout) {
+	/**
+	 * Only created if some of the VMs of the job are not yet running when the
+	 * job is due.
+	 */
+	private DeferredEvent timeout = null;
 
-		@Override
-		protected void eventAction() {
-			// After our timeout we still don't have all VMs started, we just forget about
-			// this job
-			releaseVMset();
-		}
-	};
+	/**
+	 * Prepares a runner that can be used for multiple jobs after each other (the
+	 * dispatcher keeps the idle runners for reuse).
+	 * 
+	 * @param forMe the dispatcher that will receive the runner back once its job
+	 *              is done
+	 */
+	SingleJobRunner(final MultiIaaSJobDispatcher forMe) {
+		parent = forMe;
+	}
 
-	public SingleJobRunner(final Job runMe, final VMKeeper[] onUs, MultiIaaSJobDispatcher forMe) {
+	/**
+	 * Starts a job on a set of VMs (or waits for the VMs to come running if they
+	 * are not yet ready).
+	 * 
+	 * @param runMe the job to be executed
+	 * @param onUs  the keepers of the VMs the job should be executed on
+	 */
+	void runJob(final Job runMe, final VMKeeper[] onUs) {
 		toProcess = runMe;
 		keeperSet = onUs;
-		parent = forMe;
-		vmSet = new VirtualMachine[keeperSet.length];
+		readyVMCounter = 0;
+		completionCounter = 0;
 		// Ensuring we receive state dependent events about the new VMs
 		for (int i = 0; i < keeperSet.length; i++) {
-			vmSet[i] = keeperSet[i].acquire();
-			if (VirtualMachine.State.RUNNING.equals(vmSet[i].getState())) {
+			final VirtualMachine vm = keeperSet[i].acquire();
+			if (VirtualMachine.State.RUNNING.equals(vm.getState())) {
 				readyVMCounter++;
 			} else {
-				vmSet[i].subscribeStateChange(this);
+				vm.subscribeStateChange(this);
 			}
 		}
+		if (readyVMCounter != keeperSet.length) {
+			timeout = new DeferredEvent(startupTimeout) {
+				@Override
+				protected void eventAction() {
+					// After our timeout we still don't have all VMs started, we just forget
+					// about this job
+					timeout = null;
+					releaseVMset();
+				}
+			};
+		}
 		// Increasing ignorecounter in order to sign that the job in this runner
 		// is not yet finished (so the premature termination of the simulation
 		// will show the job ignored)
@@ -108,23 +132,26 @@ public class SingleJobRunner implements VirtualMachine.StateChange, ConsumptionE
 	}
 
 	private void startProcess() {
-		if (readyVMCounter == vmSet.length) {
+		if (readyVMCounter == keeperSet.length) {
 			// Mark that we start the job / no further queuing
 			toProcess.started();
-			timeout.cancel();
+			if (timeout != null) {
+				timeout.cancel();
+				timeout = null;
+			}
 			try {
-				// vmset could get null if the compute task is rapidly terminating!
-				for (int i = 0; vmSet != null && i < vmSet.length; i++) {
+				// keeperSet could get null if the compute task is rapidly terminating!
+				final long exectime = toProcess.getExectimeSecs();
+				for (int i = 0; keeperSet != null && i < keeperSet.length; i++) {
 					// run the job's relevant part in the VM
-					vmSet[i].newComputeTask(
-							toProcess.getExectimeSecs() * vmSet[i].getResourceAllocation().allocated.getRequiredCPUs(),
+					final VirtualMachine vm = keeperSet[i].getVM();
+					vm.newComputeTask(exectime * vm.getResourceAllocation().allocated.getRequiredCPUs(),
 							ResourceConsumption.unlimitedProcessing, this);
 				}
 			} catch (Exception e) {
-				System.err.println(
-						"Unexpected network setup issues while trying to send a new compute task to one of the VMs supporting job processing");
-				e.printStackTrace();
-				System.exit(1);
+				throw new RuntimeException(
+						"Unexpected network setup issues while trying to send a new compute task to one of the VMs supporting job processing",
+						e);
 			}
 		}
 	}
@@ -135,26 +162,30 @@ public class SingleJobRunner implements VirtualMachine.StateChange, ConsumptionE
 	@Override
 	public void conComplete() {
 
-		if (++completionCounter == vmSet.length) {
+		if (++completionCounter == keeperSet.length) {
 			// everything went smoothly we mark it in the job
 			toProcess.completed();
-			// the VMs are no longer needed
-			releaseVMset();
 			parent.increaseDestroyCounter(completionCounter);
 			parent.ignorecounter--;
-			parent = null;
-			vmSet = null;
-			toProcess = null;
+			// the VMs are no longer needed
+			releaseVMset();
 		}
 	}
 
+	/**
+	 * Releases the VMs of the job and hands the keeper array and this runner
+	 * back to the dispatcher for reuse.
+	 */
 	private void releaseVMset() {
-		for (int i = 0; i < vmSet.length; i++) {
-			vmSet[i].unsubscribeStateChange(this);
-			keeperSet[i].release(vmSet[i]);
-			keeperSet[i] = null;
-			vmSet[i] = null;
+		final VMKeeper[] keepers = keeperSet;
+		for (int i = 0; i < keepers.length; i++) {
+			final VirtualMachine vm = keepers[i].getVM();
+			vm.unsubscribeStateChange(this);
+			keepers[i].release(vm);
 		}
+		keeperSet = null;
+		toProcess = null;
+		parent.runnerFinished(this, keepers);
 	}
 
 	@Override
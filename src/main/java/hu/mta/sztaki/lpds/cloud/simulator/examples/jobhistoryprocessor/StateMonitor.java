@@ -24,13 +24,10 @@
  */
 package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
 import hu.mta.sztaki.lpds.cloud.simulator.energy.specialized.IaaSEnergyMeter;
@@ -47,57 +44,85 @@ import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
  *         MTA SZTAKI (c) 2012-5"
  */
 class StateMonitor extends Timed {
+	/**
+	 * The maximum number of collected records that are not yet written out. If
+	 * the writer falls behind this much, the simulation waits for it.
+	 */
+	public static final int maxPendingRecords = 4096;
 	/**
 	 * All collected data that has not been written out yet
 	 */
-	private ConcurrentLinkedQueue<OverallSystemState> monitoringDataQueue = new ConcurrentLinkedQueue<OverallSystemState>();
-	private boolean continueRunning = true;
+	private final StateRecordRing monitoringData = new StateRecordRing(maxPendingRecords);
+	/**
+	 * If set, every sample is also collected with a full scan of all PMs, and the
+	 * differences between the incrementally maintained and the scanned values
+	 * are reported. The scanned values are recorded then.
+	 */
+	public static final boolean verifyAggregates = System
+			.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.verifyMonitoring") != null;
+	/**
+	 * The record reused for every data collection
+	 */
+	private final OverallSystemState current = new OverallSystemState();
+	/**
+	 * The PM and VM related part of the system state, maintained as the PMs and
+	 * VMs change their states
+	 */
+	private final IncrementalSystemState aggregates;
 
 	class DataFlusherThread extends Thread {
 		/**
-		 * Where do we write the data? Allows to have a threshold on the
-		 * monitoring database and in the future it can be used to continuously
-		 * empty the database to the disk.
+		 * Where do we write the data?
 		 */
-		private BufferedWriter bw;
+		private final StateSink sink;
 
 		public DataFlusherThread(String traceFile) throws IOException {
 			if (MultiIaaSJobDispatcher.verbosity) {
 				System.err.println("Data flusher thread starts");
 			}
-			bw = new BufferedWriter(new FileWriter(traceFile + ".converted"));
-			bw.write("UnixTime*1000" + ",NrFinished,NrQueued,VMNum,UsedCores,OnPMs,CentralRepoTX\n");
+			sink = StateSink.create(traceFile, System.getProperty(StateSink.formatProperty));
 			start();
 		}
 
 		@Override
 		public void run() {
 			try {
-				do {
-					while (monitoringDataQueue.peek() == null && continueRunning) {
-						try {
-							sleep(50);
-						} catch (InterruptedException ie) {
-
-						}
-					}
-					OverallSystemState st = null;
-					while ((st = monitoringDataQueue.poll()) != null) {
-						// Afterwards we write out the collected statistics to
-						// the
-						// output csv file
-						bw.write(st.toString());
+				final StateRecordRing r = monitoringData;
+				long until;
+				while ((until = r.awaitRecords()) != r.first()) {
+					for (long seq = r.first(); seq < until; seq++) {
+						final int i = r.index(seq);
+						sink.write(r.timeStamp[i], r.finishedVMs[i], r.queueLen[i], r.runningVMs[i], r.usedCores[i],
+								r.runningPMs[i], r.totalTransferredData[i]);
 					}
-				} while (continueRunning);
-				bw.close();
+					r.release(until);
+				}
+				sink.close();
 			} catch (IOException e) {
+				abandon(e);
 				throw new RuntimeException("Problem with writing out the monitoring database", e);
+			} catch (RuntimeException e) {
+				abandon(e);
+				throw e;
 			}
 			System.err.println("State information written " + Calendar.getInstance().getTimeInMillis());
 			if (MultiIaaSJobDispatcher.verbosity) {
 				System.err.println("Data flusher thread terminates");
 			}
 		}
+
+		/**
+		 * Stops the simulation from waiting for the records to be written out and
+		 * releases the output file
+		 */
+		private void abandon(final Exception cause) {
+			monitoringData.fail(cause);
+			try {
+				sink.close();
+			} catch (IOException e) {
+				// The original problem is reported by the caller
+			}
+		}
 	}
 
 	/**
@@ -124,7 +149,8 @@ class StateMonitor extends Timed {
 
 	/**
 	 * Initiates the state monitoring process by setting up the energy meters,
-	 * creating the output csv file (called [tracefile].converted) and
+	 * creating the output file (called [tracefile].converted by default, see
+	 * {@link StateSink#create(String, String)} for the other formats) and
 	 * subscribing to periodic timing events (for every 5 minutes) so the
 	 * metering queires can be made automatically.
 	 * 
@@ -132,7 +158,7 @@ class StateMonitor extends Timed {
 	 * its operation!
 	 * 
 	 * @param traceFile
-	 *            the name of the output csv (without the .converted extension)
+	 *            the name of the output file (without the .converted extension)
 	 * @param dispatcher
 	 *            the dispatcher that sends its jobs to the clouds
 	 * @param iaasList
@@ -148,6 +174,7 @@ class StateMonitor extends Timed {
 		new DataFlusherThread(traceFile);
 		this.iaasList = iaasList;
 		this.dispatcher = dispatcher;
+		aggregates = new IncrementalSystemState(iaasList, dispatcher);
 		for (IaaSService iaas : iaasList) {
 			IaaSEnergyMeter iaasMeter = new IaaSEnergyMeter(iaas);
 			iaasMeter.startMeter(interval, false);
@@ -163,24 +190,25 @@ class StateMonitor extends Timed {
 	@Override
 	public void tick(long fires) {
 		// Collecting the monitoring data
-		OverallSystemState current = new OverallSystemState();
+		current.queueLen = 0;
+		current.totalTransferredData = 0;
 		final int iaasCount = iaasList.size();
 		for (int i = 0; i < iaasCount; i++) {
 			IaaSService iaas = iaasList.get(i);
-			int msize = iaas.machines.size();
-			for (int j = 0; j < msize; j++) {
-				PhysicalMachine pm = iaas.machines.get(j);
-				current.finishedVMs += pm.getCompletedVMs();
-				current.runningVMs += pm.numofCurrentVMs();
-				current.usedCores += pm.getCapacities().getRequiredCPUs() - pm.freeCapacities.getRequiredCPUs();
-				current.runningPMs += pm.isRunning() ? 1 : 0;
-			}
 			current.queueLen += iaas.sched.getQueueLength();
 			current.totalTransferredData += iaas.repositories.get(0).outbws.getTotalProcessed();
 		}
 		current.timeStamp = Timed.getFireCount();
+		if (verifyAggregates) {
+			scanPMs();
+		} else {
+			current.finishedVMs = aggregates.finishedVMs;
+			current.runningVMs = aggregates.runningVMs;
+			current.usedCores = (int) aggregates.usedCores;
+			current.runningPMs = aggregates.runningPMs;
+		}
 		// Recording it
-		monitoringDataQueue.add(current);
+		monitoringData.offer(current);
 
 		// Checking for termination conditions:
 		if (!dispatcher.isSubscribed() && current.queueLen == 0 && current.runningVMs == 0) {
@@ -190,7 +218,7 @@ class StateMonitor extends Timed {
 			for (IaaSEnergyMeter em : meters) {
 				em.stopMeter();
 			}
-			continueRunning = false;
+			monitoringData.close();
 			double sum = 0;
 			// finally we collect and aggregate the energy consumption data
 			for (IaaSEnergyMeter m : meters) {
@@ -200,4 +228,49 @@ class StateMonitor extends Timed {
 			System.err.println("Total power consumption: " + sum / 1000 / 3600000 + " kWh");
 		}
 	}
+
+	/**
+	 * Stops the monitoring without waiting for the dispatcher to finish (e.g.,
+	 * because the simulation failed). The records collected so far are still
+	 * written out and the data flusher thread terminates.
+	 */
+	public void abort() {
+		if (isSubscribed()) {
+			unsubscribe();
+			for (IaaSEnergyMeter em : meters) {
+				em.stopMeter();
+			}
+			monitoringData.close();
+		}
+	}
+
+	/**
+	 * Collects the PM and VM related part of the system state by visiting every
+	 * PM, then reports if the incrementally maintained aggregates differ.
+	 */
+	private void scanPMs() {
+		current.finishedVMs = 0;
+		current.runningVMs = 0;
+		current.usedCores = 0;
+		current.runningPMs = 0;
+		final int iaasCount = iaasList.size();
+		for (int i = 0; i < iaasCount; i++) {
+			IaaSService iaas = iaasList.get(i);
+			int msize = iaas.machines.size();
+			for (int j = 0; j < msize; j++) {
+				PhysicalMachine pm = iaas.machines.get(j);
+				current.finishedVMs += pm.getCompletedVMs();
+				current.runningVMs += pm.numofCurrentVMs();
+				current.usedCores += pm.getCapacities().getRequiredCPUs() - pm.freeCapacities.getRequiredCPUs();
+				current.runningPMs += pm.isRunning() ? 1 : 0;
+			}
+		}
+		if (current.finishedVMs != aggregates.finishedVMs || current.runningVMs != aggregates.runningVMs
+				|| current.usedCores != (int) aggregates.usedCores || current.runningPMs != aggregates.runningPMs) {
+			System.err.println("Monitoring mismatch at " + current.timeStamp + " (scanned/incremental): finished "
+					+ current.finishedVMs + "/" + aggregates.finishedVMs + " running " + current.runningVMs + "/"
+					+ aggregates.runningVMs + " cores " + current.usedCores + "/" + (int) aggregates.usedCores
+					+ " PMs " + current.runningPMs + "/" + aggregates.runningPMs);
+		}
+	}
 }
\ No newline at end of file
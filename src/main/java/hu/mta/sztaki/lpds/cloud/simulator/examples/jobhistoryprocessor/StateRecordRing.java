@@ -0,0 +1,194 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded single producer - single consumer ring of system state records.
+ * The records are stored in primitive arrays (one per field of
+ * {@link OverallSystemState}), so passing a record to the consumer does not
+ * allocate anything.
+ *
+ * If the ring is full, the producer (i.e., the simulation) is parked until the
+ * consumer catches up. If the ring is empty, the consumer is parked until a new
+ * record arrives or the ring is closed. If the consumer fails, it marks the ring
+ * failed, and the producer gets an exception instead of waiting for it.
+ */
+class StateRecordRing {
+	private final int mask;
+	final long[] timeStamp;
+	final int[] finishedVMs;
+	final int[] queueLen;
+	final int[] runningVMs;
+	final int[] usedCores;
+	final int[] runningPMs;
+	final double[] totalTransferredData;
+	/**
+	 * The sequence number of the next record to be consumed
+	 */
+	private volatile long head = 0;
+	/**
+	 * The sequence number of the next record to be produced
+	 */
+	private volatile long tail = 0;
+	private volatile boolean closed = false;
+	/**
+	 * The reason the consumer has stopped, null while it is consuming
+	 */
+	private volatile Exception failure = null;
+	private volatile Thread parkedProducer = null;
+	private volatile Thread parkedConsumer = null;
+
+	/**
+	 * Creates the ring
+	 *
+	 * @param capacity the maximum number of records that can wait for the
+	 *                 consumer, rounded up to the next power of two
+	 */
+	StateRecordRing(final int capacity) {
+		final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+		mask = size - 1;
+		timeStamp = new long[size];
+		finishedVMs = new int[size];
+		queueLen = new int[size];
+		runningVMs = new int[size];
+		usedCores = new int[size];
+		runningPMs = new int[size];
+		totalTransferredData = new double[size];
+	}
+
+	/**
+	 * Copies a state record into the ring. Blocks if the ring is full.
+	 *
+	 * @param st the record to be copied, it can be reused right after the call
+	 * @throws IllegalStateException if the consumer has failed, so the record
+	 *                               would never be consumed
+	 */
+	void offer(final OverallSystemState st) {
+		final long t = tail;
+		checkFailure();
+		while (t - head > mask) {
+			parkedProducer = Thread.currentThread();
+			if (t - head > mask && failure == null) {
+				LockSupport.park(this);
+			}
+			parkedProducer = null;
+			checkFailure();
+		}
+		final int idx = (int) t & mask;
+		timeStamp[idx] = st.timeStamp;
+		finishedVMs[idx] = st.finishedVMs;
+		queueLen[idx] = st.queueLen;
+		runningVMs[idx] = st.runningVMs;
+		usedCores[idx] = st.usedCores;
+		runningPMs[idx] = st.runningPMs;
+		totalTransferredData[idx] = st.totalTransferredData;
+		// Publishes the record
+		tail = t + 1;
+		final Thread consumer = parkedConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	private void checkFailure() {
+		final Exception cause = failure;
+		if (cause != null) {
+			throw new IllegalStateException("The consumer of the state records has failed", cause);
+		}
+	}
+
+	/**
+	 * Signals that the consumer stopped and no more records will be consumed.
+	 * The producer is woken up if it waits for space.
+	 *
+	 * @param cause the reason of the consumer's failure
+	 */
+	void fail(final Exception cause) {
+		failure = cause;
+		final Thread producer = parkedProducer;
+		if (producer != null) {
+			LockSupport.unpark(producer);
+		}
+	}
+
+	/**
+	 * Signals that no more records will be offered.
+	 */
+	void close() {
+		closed = true;
+		final Thread consumer = parkedConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Waits until there are records to consume.
+	 *
+	 * @return the sequence number until which (exclusive) the records can be
+	 *         consumed, equals to {@link #first()} if the ring is closed and
+	 *         empty
+	 */
+	long awaitRecords() {
+		while (tail == head && !closed) {
+			parkedConsumer = Thread.currentThread();
+			if (tail == head && !closed) {
+				LockSupport.park(this);
+			}
+			parkedConsumer = null;
+		}
+		// Closing might have happened after the last offer
+		return tail;
+	}
+
+	/**
+	 * Tells the sequence number of the first record not yet consumed
+	 */
+	long first() {
+		return head;
+	}
+
+	/**
+	 * Determines the location of a record in the arrays of the ring
+	 *
+	 * @param seq the sequence number of the record
+	 * @return the index to be used with the record arrays
+	 */
+	int index(final long seq) {
+		return (int) seq & mask;
+	}
+
+	/**
+	 * Frees up the space of the already consumed records
+	 *
+	 * @param until the sequence number of the first record that is not yet
+	 *              consumed
+	 */
+	void release(final long until) {
+		head = until;
+		final Thread producer = parkedProducer;
+		if (producer != null) {
+			LockSupport.unpark(producer);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The destination of the state records collected by the {@link StateMonitor}.
+ * The sinks receive the fields of the records one by one so they can encode
+ * them without creating any intermediate objects.
+ *
+ * The format of the sink used by the monitor is selected with the
+ * hu.mta.sztaki.lpds.cloud.simulator.examples.monitoringFormat system property
+ * (see {@link #create(String, String)} for the possible values).
+ */
+public abstract class StateSink {
+	public static final String formatProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.monitoringFormat";
+	public static final String csvFormat = "csv";
+	public static final String gzipCsvFormat = "csv.gz";
+	public static final String binaryFormat = "binary";
+
+	/**
+	 * Records a single system state
+	 */
+	public abstract void write(long timeStamp, int finishedVMs, int queueLen, int runningVMs, int usedCores,
+			int runningPMs, double totalTransferredData) throws IOException;
+
+	/**
+	 * Writes out all buffered records and releases the underlying file
+	 */
+	public abstract void close() throws IOException;
+
+	/**
+	 * Creates a new sink writing to a file next to the trace.
+	 *
+	 * @param traceFile the name of the trace the monitoring data is collected
+	 *                  for
+	 * @param format    one of {@link #csvFormat} (written to
+	 *                  [traceFile].converted), {@link #gzipCsvFormat} (written to
+	 *                  [traceFile].converted.gz) and {@link #binaryFormat} (written
+	 *                  to [traceFile].converted.bin, see {@link BinaryStateSink}).
+	 *                  If null, the csv format is used.
+	 * @return the sink ready to receive records
+	 * @throws IOException if the output file could not be created
+	 */
+	public static StateSink create(final String traceFile, final String format) throws IOException {
+		if (format == null || csvFormat.equals(format)) {
+			return new CsvStateSink(new FileOutputStream(traceFile + ".converted").getChannel());
+		} else if (gzipCsvFormat.equals(format)) {
+			return new CsvStateSink(Channels
+					.newChannel(new GZIPOutputStream(new FileOutputStream(traceFile + ".converted.gz"), 64 * 1024)));
+		} else if (binaryFormat.equals(format)) {
+			return new BinaryStateSink(new FileOutputStream(traceFile + ".converted.bin").getChannel());
+		} else {
+			throw new IllegalArgumentException("Unknown monitoring output format: " + format);
+		}
+	}
+}
@@ -25,6 +25,7 @@ package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 import java.util.Comparator;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.TimerWheel;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VMManager;
@@ -37,11 +38,15 @@ import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ResourceConstraints;
  * This class could receive VMs to be kept for longer periods of time even if
  * they are not used at the moment. Useful to match billing periods
  * 
+ * The end of the billing periods are tracked with a {@link TimerWheel} shared
+ * by all keepers of a dispatcher, so the kept VMs do not add their own events
+ * to the simulator's event queue.
+ * 
  * 
  * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
  *         Moores University, (c) 2017"
  */
-public class VMKeeper extends Timed implements VirtualMachine.StateChange {
+public class VMKeeper extends TimerWheel.Timer implements VirtualMachine.StateChange {
 	/**
 	 * Allows ordering the keeper objects based on the VM's size they host.
 	 * 
@@ -70,8 +75,23 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 		}
 	}
 
+	/**
+	 * Allows the owner of the keeper to track when the kept VM becomes available
+	 * for reuse and when it is gone for good.
+	 */
 	public static interface ReleaseListener {
+		/**
+		 * The VM of the keeper is no longer in use, but it is kept alive until the
+		 * end of its billing period.
+		 */
 		void released(VMKeeper me);
+
+		/**
+		 * The VM of the keeper is terminated (either because its billing period
+		 * expired, it was prematurely destroyed or it was not kept after its
+		 * release).
+		 */
+		void terminated(VMKeeper me);
 	}
 
 	public static final boolean keepVMs;
@@ -105,15 +125,30 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 * When did we start the VM's billing period
 	 */
 	private final long startTime;
+	/**
+	 * The wheel that notifies us when the billing period is about to expire
+	 */
+	private final TimerWheel wheel;
+
+	/**
+	 * The number of cores requested for the VM
+	 */
+	private final double cores;
 
 	private boolean alive;
 
 	private ReleaseListener listener;
 
-	public VMKeeper(IaaSService onCloud, VirtualMachine vm, long billingPeriod) {
+	public VMKeeper(IaaSService onCloud, VirtualMachine vm, long billingPeriod, TimerWheel wheel) {
+		this(onCloud, vm, 0, billingPeriod, wheel);
+	}
+
+	public VMKeeper(IaaSService onCloud, VirtualMachine vm, double cores, long billingPeriod, TimerWheel wheel) {
 		this.onCloud = onCloud;
 		this.vm = vm;
+		this.cores = cores;
 		this.billingPeriod = billingPeriod;
+		this.wheel = wheel;
 		alive = isServable();
 		startTime = Timed.getFireCount();
 		startSubscription();
@@ -151,6 +186,40 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 		return ra != null && rc.compareTo(vm.getResourceAllocation().allocated) <= 0;
 	}
 
+	/**
+	 * Tells the size of the kept VM
+	 * 
+	 * @return the resources allocated for the VM or null if the VM is not on a PM
+	 */
+	ResourceConstraints getAllocatedResources() {
+		PhysicalMachine.ResourceAllocation ra = vm.getResourceAllocation();
+		return ra == null ? null : ra.allocated;
+	}
+
+	/**
+	 * Tells the cloud hosting the kept VM
+	 */
+	IaaSService getCloud() {
+		return onCloud;
+	}
+
+	/**
+	 * Tells the number of cores the kept VM was requested with (0 if unknown)
+	 */
+	double getCores() {
+		return cores;
+	}
+
+	/**
+	 * Tells the VM kept by this keeper without acquiring it. Should only be used
+	 * by those who have already acquired the VM.
+	 * 
+	 * @return the virtual machine kept by this keeper
+	 */
+	VirtualMachine getVM() {
+		return vm;
+	}
+
 	/**
 	 * Provides access to the VM kept by this keeper. The VM will not be destroyed
 	 * by this VMKeeper before it is released.
@@ -159,8 +228,8 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 *         in use by someone else)
 	 */
 	public VirtualMachine acquire() {
-		if (isSubscribed()) {
-			unsubscribe();
+		if (isScheduled()) {
+			wheel.cancel(this);
 			return vm;
 		} else {
 			return null;
@@ -173,7 +242,7 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 * @return true if the VM is not used, false otherwise
 	 */
 	public boolean isFree() {
-		return isSubscribed();
+		return isScheduled();
 	}
 
 	/**
@@ -203,7 +272,7 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 * Keeps the VM so it stays alive until the latest billing period is over
 	 */
 	private void startSubscription() {
-		subscribe(Math.max(0, billingPeriod - (Timed.getFireCount() - startTime) % billingPeriod - 1));
+		wheel.schedule(this, Math.max(0, billingPeriod - (Timed.getFireCount() - startTime) % billingPeriod - 1));
 	}
 
 	/**
@@ -213,9 +282,10 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 * Note: this operation is only possible if the VM is not acquired at the moment
 	 */
 	public void prematureDestroy() {
-		if (isSubscribed()) {
+		if (isScheduled()) {
 			prematureVMs++;
-			tick(Timed.getFireCount());
+			wheel.cancel(this);
+			expire(Timed.getFireCount());
 		} else {
 			throw new RuntimeException("The VM is in use, it must be released before destruction");
 		}
@@ -226,6 +296,9 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 * a VM when a destroy is called
 	 */
 	private void destroyMyVM() {
+		if (listener != null) {
+			listener.terminated(this);
+		}
 		try {
 			if (VirtualMachine.preStartupStates.contains(vm.getState())) {
 				// Not yet scheduled
@@ -257,14 +330,13 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	}
 
 	/**
-	 * We receive this tick just before the billing period expires and terminate the
-	 * VM immediately as the VM is unused at the moment.
+	 * We receive this call just before the billing period expires and terminate
+	 * the VM immediately as the VM is unused at the moment.
 	 */
 	@Override
-	public void tick(long fires) {
+	protected void expire(long fires) {
 		expiredVMs++;
 		destroyMyVM();
-		unsubscribe();
 	}
 
 	public void setListener(ReleaseListener listener) {
@@ -0,0 +1,390 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.FileBasedTraceProducerFactory;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.GenericTraceProducer;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.TraceManagementException;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.TraceProducerFoundation;
+
+/**
+ * A trace producer that reads its jobs from a binary, columnar cache file
+ * (named [tracefile].dcfcache) placed next to the original trace. The cache is
+ * written when the trace is first parsed and it is memory mapped on subsequent
+ * runs, so the job properties are read directly from the mapped columns
+ * without parsing.
+ *
+ * The cache is rebuilt if the source trace's modification time, length or the
+ * checksum of its first and last blocks changes, or if the job range or the
+ * processor limit differs from the one the cache was prepared with.
+ *
+ * Layout of the cache (big endian): a fixed header, then one column per job
+ * property (submit, queue and exec times, per processor cpu use, memory use,
+ * processor count, then string ids for the user, group, executable and job
+ * id), finally a string table (offsets and then UTF-8 contents).
+ *
+ * Note: the relations amongst jobs (preceding jobs and think times) are not
+ * stored in the cache. Also, the mapping limits a cache to 2GB.
+ */
+public class CachedTraceProducer extends TraceProducerFoundation {
+	public static final String cacheExtension = ".dcfcache";
+	private static final int magic = 0x44434643; // DCFC
+	private static final int version = 1;
+	private static final int headerLength = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 4 + 4;
+	/**
+	 * The amount of bytes checksummed at both ends of the source trace
+	 */
+	private static final int sampleLength = 64 * 1024;
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	private final int jobCount;
+	private final LongBuffer submit;
+	private final LongBuffer queue;
+	private final LongBuffer exec;
+	private final IntBuffer nprocs;
+	private final DoubleBuffer ppCpu;
+	private final LongBuffer ppMem;
+	private final IntBuffer user;
+	private final IntBuffer group;
+	private final IntBuffer executable;
+	private final IntBuffer id;
+	/**
+	 * The start of each string in the string table (relative to the start of the
+	 * string contents), with an extra entry marking the end of the table
+	 */
+	private final IntBuffer stringOffsets;
+	private final ByteBuffer stringContents;
+	/**
+	 * The strings decoded so far (strings are only decoded when first needed)
+	 */
+	private final String[] decoded;
+	/**
+	 * The index of the first job that was not yet offered by this producer
+	 */
+	private int nextJob = 0;
+
+	/**
+	 * Maps a previously written cache file
+	 *
+	 * @param cacheFile the file to be loaded
+	 * @param jobType   the kind of jobs to be produced
+	 * @throws IOException if the cache is not readable or not a cache file
+	 */
+	private CachedTraceProducer(final File cacheFile, final Class<? extends Job> jobType)
+			throws IOException, SecurityException, NoSuchMethodException {
+		super(jobType);
+		final RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+		final MappedByteBuffer mapped;
+		try {
+			mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			// The mapping stays valid after the file is closed
+			raf.close();
+		}
+		if (mapped.getInt(0) != magic || mapped.getInt(4) != version) {
+			throw new IOException("Not a trace cache: " + cacheFile);
+		}
+		jobCount = mapped.getInt(headerLength - 8);
+		final int stringCount = mapped.getInt(headerLength - 4);
+		int pos = headerLength;
+		submit = slice(mapped, pos, jobCount * 8).asLongBuffer();
+		pos += jobCount * 8;
+		queue = slice(mapped, pos, jobCount * 8).asLongBuffer();
+		pos += jobCount * 8;
+		exec = slice(mapped, pos, jobCount * 8).asLongBuffer();
+		pos += jobCount * 8;
+		ppCpu = slice(mapped, pos, jobCount * 8).asDoubleBuffer();
+		pos += jobCount * 8;
+		ppMem = slice(mapped, pos, jobCount * 8).asLongBuffer();
+		pos += jobCount * 8;
+		nprocs = slice(mapped, pos, jobCount * 4).asIntBuffer();
+		pos += jobCount * 4;
+		user = slice(mapped, pos, jobCount * 4).asIntBuffer();
+		pos += jobCount * 4;
+		group = slice(mapped, pos, jobCount * 4).asIntBuffer();
+		pos += jobCount * 4;
+		executable = slice(mapped, pos, jobCount * 4).asIntBuffer();
+		pos += jobCount * 4;
+		id = slice(mapped, pos, jobCount * 4).asIntBuffer();
+		pos += jobCount * 4;
+		stringOffsets = slice(mapped, pos, (stringCount + 1) * 4).asIntBuffer();
+		pos += (stringCount + 1) * 4;
+		stringContents = slice(mapped, pos, stringOffsets.get(stringCount));
+		decoded = new String[stringCount];
+	}
+
+	private static ByteBuffer slice(final ByteBuffer from, final int pos, final int len) {
+		final ByteBuffer dup = from.duplicate();
+		dup.position(pos);
+		dup.limit(pos + len);
+		return dup.slice();
+	}
+
+	/**
+	 * Determines the string with a particular id from the string table
+	 */
+	private String getString(final int sid) {
+		if (sid < 0) {
+			return null;
+		}
+		String s = decoded[sid];
+		if (s == null) {
+			final int start = stringOffsets.get(sid);
+			final byte[] raw = new byte[stringOffsets.get(sid + 1) - start];
+			final ByteBuffer dup = stringContents.duplicate();
+			dup.position(start);
+			dup.get(raw);
+			s = decoded[sid] = new String(raw, utf8);
+		}
+		return s;
+	}
+
+	/**
+	 * Instantiates the job stored at a particular row of the cache
+	 */
+	private Job createJob(final int row) throws TraceManagementException {
+		try {
+			return jobCreator.newInstance(getString(id.get(row)), submit.get(row), queue.get(row), exec.get(row),
+					nprocs.get(row), ppCpu.get(row), ppMem.get(row), getString(user.get(row)),
+					getString(group.get(row)), getString(executable.get(row)), null, 0L);
+		} catch (Exception e) {
+			throw new TraceManagementException("Could not create job from the trace cache", e);
+		}
+	}
+
+	@Override
+	public List<Job> getAllJobs() throws TraceManagementException {
+		return getJobs(jobCount - nextJob);
+	}
+
+	@Override
+	public List<Job> getJobs(final int num) throws TraceManagementException {
+		final int until = Math.min(jobCount, nextJob + num);
+		final ArrayList<Job> jobs = new ArrayList<Job>(Math.max(0, until - nextJob));
+		for (; nextJob < until; nextJob++) {
+			jobs.add(createJob(nextJob));
+		}
+		return jobs;
+	}
+
+	/**
+	 * Tells the number of jobs stored in the cache
+	 *
+	 * @return the job count
+	 */
+	public int getJobCount() {
+		return jobCount;
+	}
+
+	/**
+	 * Offers a producer for a trace file. If there is an up to date cache for the
+	 * trace, then it is loaded, otherwise the trace file is parsed with
+	 * {@link FileBasedTraceProducerFactory} and the cache is (re)written before
+	 * loading it.
+	 *
+	 * @param traceFile    the trace to be loaded
+	 * @param from         the first job to be loaded from the trace
+	 * @param to           the last job to be loaded from the trace
+	 * @param maxProcCount the maximum number of processors a job can use
+	 * @param jobType      the kind of jobs to be produced
+	 * @return the producer backed by the cache
+	 * @throws TraceManagementException if the trace could not be parsed or the
+	 *                                  cache could not be written/read
+	 */
+	public static GenericTraceProducer getProducer(final String traceFile, final int from, final int to,
+			final int maxProcCount, final Class<? extends Job> jobType) throws TraceManagementException {
+		final File source = new File(traceFile);
+		final File cache = new File(traceFile + cacheExtension);
+		try {
+			final long sampleHash = sampleHash(source);
+			if (!isUpToDate(cache, source, sampleHash, from, to, maxProcCount)) {
+				final List<Job> jobs = FileBasedTraceProducerFactory
+						.getProducerFromFile(traceFile, from, to, false, maxProcCount, jobType).getAllJobs();
+				writeCache(cache, jobs, source, sampleHash, from, to, maxProcCount);
+			}
+			return new CachedTraceProducer(cache, jobType);
+		} catch (IOException e) {
+			throw new TraceManagementException("Trace cache failure for " + traceFile, e);
+		} catch (NoSuchMethodException e) {
+			throw new TraceManagementException("Unusable job type: " + jobType.getName(), e);
+		}
+	}
+
+	/**
+	 * Checksums the first and the last {@link #sampleLength} bytes of the source
+	 * file.
+	 */
+	private static long sampleHash(final File source) throws IOException {
+		final CRC32 crc = new CRC32();
+		final RandomAccessFile raf = new RandomAccessFile(source, "r");
+		try {
+			final byte[] buf = new byte[sampleLength];
+			final long len = raf.length();
+			int read = raf.read(buf);
+			if (read > 0) {
+				crc.update(buf, 0, read);
+			}
+			if (len > sampleLength) {
+				raf.seek(Math.max(sampleLength, len - sampleLength));
+				read = raf.read(buf);
+				if (read > 0) {
+					crc.update(buf, 0, read);
+				}
+			}
+		} finally {
+			raf.close();
+		}
+		return crc.getValue();
+	}
+
+	private static boolean isUpToDate(final File cache, final File source, final long sampleHash, final int from,
+			final int to, final int maxProcCount) throws IOException {
+		if (!cache.exists() || cache.length() < headerLength) {
+			return false;
+		}
+		final FileInputStream fis = new FileInputStream(cache);
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(headerLength);
+			final FileChannel fc = fis.getChannel();
+			while (header.hasRemaining() && fc.read(header) >= 0)
+				;
+			return header.getInt(0) == magic && header.getInt(4) == version && header.getLong(8) == source.length()
+					&& header.getLong(16) == source.lastModified() && header.getLong(24) == sampleHash
+					&& header.getInt(32) == from && header.getInt(36) == to && header.getInt(40) == maxProcCount;
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Assigns ids to strings in the order of their first appearance
+	 */
+	private static int stringId(final String s, final HashMap<String, Integer> ids, final ArrayList<String> table) {
+		if (s == null) {
+			return -1;
+		}
+		Integer sid = ids.get(s);
+		if (sid == null) {
+			sid = table.size();
+			ids.put(s, sid);
+			table.add(s);
+		}
+		return sid;
+	}
+
+	/**
+	 * Writes the cache to a temporary file first, and then moves it in place so
+	 * concurrent readers never see a partially written cache.
+	 */
+	private static void writeCache(final File cache, final List<Job> jobs, final File source, final long sampleHash,
+			final int from, final int to, final int maxProcCount) throws IOException {
+		final int n = jobs.size();
+		final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		final ArrayList<String> table = new ArrayList<String>();
+		final int[][] strCols = new int[4][n];
+		for (int i = 0; i < n; i++) {
+			final Job j = jobs.get(i);
+			strCols[0][i] = stringId(j.user, ids, table);
+			strCols[1][i] = stringId(j.group, ids, table);
+			strCols[2][i] = stringId(j.executable, ids, table);
+			strCols[3][i] = stringId(j.getId(), ids, table);
+		}
+		final File temp = File.createTempFile(cache.getName(), ".tmp", cache.getAbsoluteFile().getParentFile());
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), 1024 * 1024));
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+			out.writeLong(sampleHash);
+			out.writeInt(from);
+			out.writeInt(to);
+			out.writeInt(maxProcCount);
+			out.writeInt(n);
+			out.writeInt(table.size());
+			for (Job j : jobs) {
+				out.writeLong(j.getSubmittimeSecs());
+			}
+			for (Job j : jobs) {
+				out.writeLong(j.getQueuetimeSecs());
+			}
+			for (Job j : jobs) {
+				out.writeLong(j.getExectimeSecs());
+			}
+			for (Job j : jobs) {
+				out.writeDouble(j.getPerProcCPUUsage());
+			}
+			for (Job j : jobs) {
+				out.writeLong(j.getUsedMemory());
+			}
+			for (Job j : jobs) {
+				out.writeInt(j.nprocs);
+			}
+			for (int[] col : strCols) {
+				for (int sid : col) {
+					out.writeInt(sid);
+				}
+			}
+			final byte[][] encoded = new byte[table.size()][];
+			int offset = 0;
+			for (int i = 0; i < encoded.length; i++) {
+				encoded[i] = table.get(i).getBytes(utf8);
+				out.writeInt(offset);
+				offset += encoded[i].length;
+			}
+			out.writeInt(offset);
+			for (byte[] s : encoded) {
+				out.write(s);
+			}
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(cache)) {
+			// Some platforms do not replace existing files on rename
+			cache.delete();
+			if (!temp.renameTo(cache)) {
+				temp.delete();
+				throw new IOException("Could not move the trace cache in place: " + cache);
+			}
+		}
+	}
+}
@@ -22,7 +22,8 @@
  */
 package hu.mta.sztaki.lpds.cloud.simulator.examples.util;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
@@ -45,8 +46,17 @@ import hu.mta.sztaki.lpds.cloud.simulator.util.PowerTransitionGenerator;
  *         MTA SZTAKI (c) 2012-5"
  */
 public class DCCreation {
+	/**
+	 * Determines the capacity of a hash map that can hold the given number of
+	 * entries without rehashing
+	 */
+	private static int presize(final int entries) {
+		return (int) (entries / 0.75f) + 1;
+	}
+
 	// Creates a uniform DC with 36T VA store and as many PMs as needed, but all PMs
-	// will have the exact same specs
+	// will have the exact same specs. The PMs are registered with the IaaS in a
+	// single bulk registration.
 	public static IaaSService createDataCentre(Class<? extends Scheduler> vmsch,
 			Class<? extends PhysicalMachineController> pmcont, int numofNodes, int numofCores) throws Exception {
 		System.err.println("Scaling datacenter to " + numofNodes + " nodes with " + numofCores + " cpu cores each");
@@ -54,43 +64,53 @@ public class DCCreation {
 		// Specification of the default power behavior
 		final EnumMap<PowerTransitionGenerator.PowerStateKind, Map<String, PowerState>> transitions = PowerTransitionGenerator
 				.generateTransitions(20, 296, 493, 50, 108);
-		final Map<String, PowerState> stTransitions = transitions.get(PowerTransitionGenerator.PowerStateKind.storage);
-		final Map<String, PowerState> nwTransitions = transitions.get(PowerTransitionGenerator.PowerStateKind.network);
+		final Map<String, PowerState> stTransitions = Collections
+				.unmodifiableMap(transitions.get(PowerTransitionGenerator.PowerStateKind.storage));
+		final Map<String, PowerState> nwTransitions = Collections
+				.unmodifiableMap(transitions.get(PowerTransitionGenerator.PowerStateKind.network));
+		final Map<String, PowerState> cpuTransitions = Collections
+				.unmodifiableMap(transitions.get(PowerTransitionGenerator.PowerStateKind.host));
+
+		// The latencies are known in advance, so the maps shared by all network
+		// nodes are filled before any of the nodes is constructed
+		final String repoid = "Storage";
+		final String machineid = "Node";
+		final String[] ids = new String[numofNodes];
+		final HashMap<String, Integer> repoLatencies = new HashMap<String, Integer>(presize(numofNodes));
+		final HashMap<String, Integer> machineLatencies = new HashMap<String, Integer>(presize(numofNodes + 1));
+		machineLatencies.put(repoid, 5); // 5 ms latency towards the repos
+		for (int i = 0; i < numofNodes; i++) {
+			ids[i] = machineid + (i + 1);
+			repoLatencies.put(ids[i], 5);
+			machineLatencies.put(ids[i], 3);
+		}
+		final Map<String, Integer> latencyMapRepo = Collections.unmodifiableMap(repoLatencies);
+		final Map<String, Integer> latencyMapMachine = Collections.unmodifiableMap(machineLatencies);
 
 		IaaSService iaas = new IaaSService(vmsch, pmcont);
 
 		// Creating the VA store for the cloud
 
-		final String repoid = "Storage";
 		// scaling the bandwidth accroding to the size of the cloud
 		final double bwRatio = (numofCores * numofNodes) / (7f * 64f);
 		// A single repo will hold 36T of data
-		HashMap<String, Integer> latencyMapRepo = new HashMap<String, Integer>(numofNodes + 2);
 		Repository mainStorage = new Repository(36000000000000l, repoid, (long) (bwRatio * 1250000),
 				(long) (bwRatio * 1250000), (long) (bwRatio * 250000), latencyMapRepo, stTransitions, nwTransitions);
 		iaas.registerRepository(mainStorage);
 
 		// Creating the PMs for the cloud
 
-		final Map<String, PowerState> cpuTransitions = transitions.get(PowerTransitionGenerator.PowerStateKind.host);
-		ArrayList<PhysicalMachine> completePMList = new ArrayList<PhysicalMachine>(numofNodes);
-		HashMap<String, Integer> latencyMapMachine = new HashMap<String, Integer>(numofNodes + 2);
-		latencyMapMachine.put(repoid, 5); // 5 ms latency towards the repos
-		final String machineid = "Node";
-		for (int i = 1; i <= numofNodes; i++) {
-			String currid = machineid + i;
-			final double pmBWRatio = Math.max(numofCores / 7f, 1);
-			PhysicalMachine pm = new PhysicalMachine(numofCores, 0.001, 256000000000l,
-					new Repository(5000000000000l, currid, (long) (pmBWRatio * 250000), (long) (pmBWRatio * 250000),
+		final PhysicalMachine[] completePMList = new PhysicalMachine[numofNodes];
+		final double pmBWRatio = Math.max(numofCores / 7f, 1);
+		for (int i = 0; i < numofNodes; i++) {
+			completePMList[i] = new PhysicalMachine(numofCores, 0.001, 256000000000l,
+					new Repository(5000000000000l, ids[i], (long) (pmBWRatio * 250000), (long) (pmBWRatio * 250000),
 							(long) (pmBWRatio * 50000), latencyMapMachine, stTransitions, nwTransitions),
 					89000, 29000, cpuTransitions);
-			latencyMapRepo.put(currid, 5);
-			latencyMapMachine.put(currid, 3);
-			completePMList.add(pm);
 		}
 
 		// registering the hosts and the IaaS services
-		iaas.bulkHostRegistration(completePMList);
+		iaas.bulkHostRegistration(Arrays.asList(completePMList));
 		return iaas;
 	}
 
@@ -0,0 +1,169 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative long values with logarithmic-linear buckets
+ * (similar to HdrHistogram): the values are bucketed by their highest
+ * {@link #subBucketBits} significant bits, so every recorded value is
+ * represented with a relative error below 2^-(subBucketBits-1) regardless of
+ * its magnitude. Recording is O(1) and allocation free, the percentile queries
+ * are linear in the number of buckets. Histograms can be merged, so the
+ * statistics of independent runs can be combined.
+ */
+public class Histogram {
+	/**
+	 * The number of significant bits kept for the values
+	 */
+	public static final int subBucketBits = 6;
+	private static final int subBuckets = 1 << subBucketBits;
+	private static final int halfSubBuckets = subBuckets / 2;
+	private static final int bucketCount = (64 - subBucketBits) * halfSubBuckets + halfSubBuckets;
+
+	private final long[] counts = new long[bucketCount];
+	private long count = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+	private double sum = 0;
+
+	/**
+	 * Determines the bucket of a value
+	 */
+	private static int indexOf(final long v) {
+		if (v < subBuckets) {
+			return (int) v;
+		}
+		final int exp = 64 - Long.numberOfLeadingZeros(v) - subBucketBits;
+		return exp * halfSubBuckets + (int) (v >>> exp);
+	}
+
+	/**
+	 * Determines the largest value that falls into a bucket
+	 */
+	private static long highestIn(final int index) {
+		if (index < subBuckets) {
+			return index;
+		}
+		final int exp = index / halfSubBuckets - 1;
+		final long mantissa = index - exp * halfSubBuckets;
+		return ((mantissa + 1) << exp) - 1;
+	}
+
+	/**
+	 * Records a value, negative values are recorded as 0
+	 * 
+	 * @param value the value to be recorded
+	 */
+	public void record(final long value) {
+		final long v = Math.max(0, value);
+		counts[indexOf(v)]++;
+		count++;
+		sum += v;
+		if (v < min) {
+			min = v;
+		}
+		if (v > max) {
+			max = v;
+		}
+	}
+
+	/**
+	 * Adds the values recorded in another histogram to this one
+	 * 
+	 * @param other the histogram to be merged
+	 */
+	public void merge(final Histogram other) {
+		for (int i = 0; i < bucketCount; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Forgets all recorded values
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the smallest recorded value (0 if nothing was recorded)
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	/**
+	 * @return the largest recorded value (0 if nothing was recorded)
+	 */
+	public long getMax() {
+		return count == 0 ? 0 : max;
+	}
+
+	/**
+	 * @return the exact average of the recorded values (0 if nothing was
+	 *         recorded)
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * Estimates a percentile of the recorded values
+	 * 
+	 * @param percentile the percentile in question (between 0 and 100)
+	 * @return the largest value equivalent (within the precision of the
+	 *         histogram) to the value at the given percentile
+	 */
+	public long getPercentile(final double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < bucketCount; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(max, Math.max(min, highestIn(i)));
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + " mean=" + getMean() + " p50=" + getPercentile(50) + " p95=" + getPercentile(95)
+				+ " p99=" + getPercentile(99) + " max=" + getMax();
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.util;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+
+/**
+ * A lightweight collection of named metrics for the simulations: counters,
+ * gauges (values calculated on demand) and {@link Histogram}s. The components
+ * of a simulation update their metrics while the simulation runs, and the
+ * registry can print the current state of all metrics periodically in
+ * simulated time, so no post-run analysis is needed to follow a simulation.
+ * 
+ * Like the simulator's clock, the registry is shared by the whole simulation
+ * (see {@link #global}). Independent simulations in the same class loader
+ * should {@link #clear()} it before they start.
+ */
+public class MetricsRegistry extends Timed {
+	/**
+	 * A monotonic event counter
+	 */
+	public static final class Counter {
+		private long value = 0;
+
+		public void inc() {
+			value++;
+		}
+
+		public void add(final long delta) {
+			value += delta;
+		}
+
+		public long get() {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return Long.toString(value);
+		}
+	}
+
+	/**
+	 * A value that is determined when the metrics are exported
+	 */
+	public static interface Gauge {
+		double value();
+	}
+
+	/**
+	 * The registry of the simulation
+	 */
+	public static final MetricsRegistry global = new MetricsRegistry();
+
+	private final LinkedHashMap<String, Counter> counters = new LinkedHashMap<String, Counter>();
+	private final LinkedHashMap<String, Gauge> gauges = new LinkedHashMap<String, Gauge>();
+	private final LinkedHashMap<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+	/**
+	 * Where the periodic exports go
+	 */
+	private PrintStream exportTarget;
+
+	/**
+	 * Gets a counter, creates it if it did not exist before
+	 * 
+	 * @param name the name of the counter
+	 * @return the counter registered with the name
+	 */
+	public Counter counter(final String name) {
+		Counter c = counters.get(name);
+		if (c == null) {
+			c = new Counter();
+			counters.put(name, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Registers a gauge, replacing the previous one with the same name
+	 * 
+	 * @param name the name of the gauge
+	 * @param g    the gauge to be queried during the exports
+	 */
+	public void gauge(final String name, final Gauge g) {
+		gauges.put(name, g);
+	}
+
+	/**
+	 * Gets a histogram, creates it if it did not exist before
+	 * 
+	 * @param name the name of the histogram
+	 * @return the histogram registered with the name
+	 */
+	public Histogram histogram(final String name) {
+		Histogram h = histograms.get(name);
+		if (h == null) {
+			h = new Histogram();
+			histograms.put(name, h);
+		}
+		return h;
+	}
+
+	/**
+	 * Drops all metrics and stops the periodic export
+	 */
+	public void clear() {
+		stopExport();
+		counters.clear();
+		gauges.clear();
+		histograms.clear();
+	}
+
+	/**
+	 * Prints the metrics periodically. Note: the export keeps the simulation
+	 * alive, so it should be stopped once the simulation is complete.
+	 * 
+	 * @param period the time between two exports in simulated ms
+	 * @param out    where the exports should be printed
+	 */
+	public void startExport(final long period, final PrintStream out) {
+		exportTarget = out;
+		if (isSubscribed()) {
+			updateFrequency(period);
+		} else {
+			subscribe(period);
+		}
+	}
+
+	/**
+	 * Cancels the periodic export
+	 */
+	public void stopExport() {
+		if (isSubscribed()) {
+			unsubscribe();
+		}
+	}
+
+	/**
+	 * Prints the current state of all metrics, one tab separated line for each:
+	 * the simulated time, the metric name and its value.
+	 * 
+	 * @param out where the metrics should be printed
+	 */
+	public void printSnapshot(final PrintStream out) {
+		final long now = Timed.getFireCount();
+		final StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Counter> e : counters.entrySet()) {
+			sb.append(now).append('\t').append(e.getKey()).append('\t').append(e.getValue()).append('\n');
+		}
+		for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+			sb.append(now).append('\t').append(e.getKey()).append('\t').append(e.getValue().value()).append('\n');
+		}
+		for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+			sb.append(now).append('\t').append(e.getKey()).append('\t').append(e.getValue()).append('\n');
+		}
+		out.print(sb);
+	}
+
+	@Override
+	public void tick(final long fires) {
+		printSnapshot(exportTarget);
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.util;
+
+/**
+ * Streaming statistics of a series of non-negative values: the count, mean and
+ * variance are maintained exactly with Welford's method, while the percentiles
+ * are estimated with a {@link Histogram}. The values themselves are not kept,
+ * and statistics collected separately can be merged.
+ */
+public class RunningStats {
+	private long count = 0;
+	private double mean = 0;
+	/**
+	 * The sum of the squared differences from the current mean
+	 */
+	private double m2 = 0;
+	private final Histogram sketch = new Histogram();
+
+	/**
+	 * Adds a value to the statistics
+	 * 
+	 * @param value the new value (negative values are treated as 0 by the
+	 *              percentile estimates)
+	 */
+	public void record(final long value) {
+		count++;
+		final double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		sketch.record(value);
+	}
+
+	/**
+	 * Adds the values of other statistics to these ones
+	 * 
+	 * @param other the statistics to be merged
+	 */
+	public void merge(final RunningStats other) {
+		if (other.count == 0) {
+			return;
+		}
+		final long total = count + other.count;
+		final double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * count * other.count / total;
+		count = total;
+		sketch.merge(other.sketch);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return the sample variance of the values (0 if there are less than two
+	 *         values)
+	 */
+	public double getVariance() {
+		return count < 2 ? 0 : m2 / (count - 1);
+	}
+
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Estimates a percentile of the values
+	 * 
+	 * @param percentile the percentile in question (between 0 and 100)
+	 * @return the value at the percentile (within the precision of
+	 *         {@link Histogram})
+	 */
+	public long getPercentile(final double percentile) {
+		return sketch.getPercentile(percentile);
+	}
+
+	public long getMax() {
+		return sketch.getMax();
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + " mean=" + mean + " stddev=" + getStdDev() + " p50=" + getPercentile(50) + " p95="
+				+ getPercentile(95) + " p99=" + getPercentile(99) + " max=" + getMax();
+	}
+}
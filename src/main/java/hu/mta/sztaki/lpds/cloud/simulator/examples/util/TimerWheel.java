@@ -0,0 +1,361 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.util;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+
+/**
+ * Multiplexes many one-shot timers over a single {@link Timed} subscription.
+ * Useful when there are lots of entities (e.g., one per VM) that would all
+ * subscribe to Timed for rare events: the wheel keeps them out of the
+ * simulator's event queue, and only asks Timed for a notification at the
+ * earliest deadline of its timers.
+ *
+ * The timers are kept in a hierarchical wheel of {@link #levels} levels with
+ * {@link #slotsPerLevel} slots each. A slot at level L spans 64^L ticks. A timer
+ * is placed in the lowest level where its deadline is in the same 64^(L+1)
+ * tick long span as the current time, deadlines farther than the wheel's range
+ * are kept in an overflow list. As time passes, the timers of the higher level
+ * slots are redistributed to the lower levels, and the timers fire when their
+ * level 0 slot is reached. Timers fire at their exact deadline. Scheduling and
+ * cancelling timers is O(1).
+ */
+public class TimerWheel extends Timed {
+	/**
+	 * An entry in the timer wheel. The implementors receive a call to
+	 * {@link #expire(long)} when their deadline is reached.
+	 */
+	public static abstract class Timer {
+		/**
+		 * The time instance when the timer should expire
+		 */
+		private long deadline;
+		/**
+		 * The list the timer is in, see {@link TimerWheel#heads}. Negative if the
+		 * timer is not scheduled.
+		 */
+		private int list = unscheduled;
+		private Timer prev;
+		private Timer next;
+
+		/**
+		 * Tells if the timer is waiting for its deadline
+		 */
+		public final boolean isScheduled() {
+			return list != unscheduled;
+		}
+
+		/**
+		 * Tells when the timer is going to expire
+		 *
+		 * @return the deadline (only meaningful if the timer is scheduled)
+		 */
+		public final long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Called when the deadline of the timer is reached. The timer is no longer
+		 * scheduled during this call, so it can schedule itself again if periodic
+		 * behaviour is needed.
+		 *
+		 * @param fires the current time
+		 */
+		protected abstract void expire(long fires);
+	}
+
+	private static final int unscheduled = -1;
+	public static final int levels = 5;
+	public static final int slotBits = 6;
+	public static final int slotsPerLevel = 1 << slotBits;
+	private static final int slotMask = slotsPerLevel - 1;
+	/**
+	 * The list of timers too far in the future for the wheel
+	 */
+	private static final int overflow = levels * slotsPerLevel;
+	/**
+	 * The list of timers that are being expired at the moment
+	 */
+	private static final int expiring = overflow + 1;
+
+	/**
+	 * The heads of the timer lists: the slots of each level, then the overflow
+	 * and the expiring lists.
+	 */
+	private final Timer[] heads = new Timer[expiring + 1];
+	private final Timer[] tails = new Timer[expiring + 1];
+	/**
+	 * Marks the non-empty slots of each level
+	 */
+	private final long[] occupied = new long[levels];
+	/**
+	 * The time until which the wheel has processed its timers
+	 */
+	private long now;
+	/**
+	 * The earliest deadline amongst the timers (Long.MAX_VALUE if there are no
+	 * timers)
+	 */
+	private long nextDeadline = Long.MAX_VALUE;
+	/**
+	 * Set if {@link #nextDeadline} might be outdated because a timer was cancelled
+	 */
+	private boolean deadlineDirty = false;
+	/**
+	 * The number of scheduled timers
+	 */
+	private int size = 0;
+	/**
+	 * Set while the wheel processes its expiring timers
+	 */
+	private boolean inTick = false;
+
+	public TimerWheel() {
+		now = Timed.getFireCount();
+	}
+
+	/**
+	 * Schedules a timer. If the timer was scheduled already, then its previous
+	 * deadline is discarded.
+	 *
+	 * @param t     the timer to be scheduled
+	 * @param delay the number of ticks from the current time when the timer
+	 *              should expire. Timers cannot expire at the current time
+	 *              instance, delays below 1 are handled as 1.
+	 */
+	public void schedule(final Timer t, final long delay) {
+		if (t.isScheduled()) {
+			unlink(t);
+			size--;
+		}
+		final long fires = Timed.getFireCount();
+		advance(fires);
+		t.deadline = fires + Math.max(1, delay);
+		place(t);
+		size++;
+		if (t.deadline < nextDeadline) {
+			nextDeadline = t.deadline;
+		}
+		if (!inTick) {
+			updateSubscription();
+		}
+	}
+
+	/**
+	 * Removes a timer from the wheel. Has no effect if the timer is not scheduled.
+	 *
+	 * @param t the timer to be cancelled
+	 */
+	public void cancel(final Timer t) {
+		if (t.isScheduled()) {
+			unlink(t);
+			size--;
+			if (t.deadline == nextDeadline) {
+				deadlineDirty = true;
+			}
+			if (!inTick) {
+				updateSubscription();
+			}
+		}
+	}
+
+	/**
+	 * Tells how many timers are waiting for their deadlines
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Determines the list of a timer with a particular deadline and adds the timer
+	 * to the end of it.
+	 */
+	private void place(final Timer t) {
+		final long d = t.deadline;
+		for (int level = 0; level < levels; level++) {
+			final int shift = slotBits * (level + 1);
+			if ((d >>> shift) == (now >>> shift)) {
+				final int slot = (int) (d >>> (slotBits * level)) & slotMask;
+				occupied[level] |= 1L << slot;
+				append(level * slotsPerLevel + slot, t);
+				return;
+			}
+		}
+		append(overflow, t);
+	}
+
+	private void append(final int list, final Timer t) {
+		t.list = list;
+		t.next = null;
+		t.prev = tails[list];
+		if (t.prev == null) {
+			heads[list] = t;
+		} else {
+			t.prev.next = t;
+		}
+		tails[list] = t;
+	}
+
+	private void unlink(final Timer t) {
+		final int list = t.list;
+		if (t.prev == null) {
+			heads[list] = t.next;
+		} else {
+			t.prev.next = t.next;
+		}
+		if (t.next == null) {
+			tails[list] = t.prev;
+		} else {
+			t.next.prev = t.prev;
+		}
+		if (heads[list] == null && list < overflow) {
+			occupied[list / slotsPerLevel] &= ~(1L << (list & slotMask));
+		}
+		t.list = unscheduled;
+		t.prev = t.next = null;
+	}
+
+	/**
+	 * Removes all timers from a list and places them again (relative to the
+	 * current time of the wheel).
+	 */
+	private void redistribute(final int list) {
+		Timer t = heads[list];
+		heads[list] = tails[list] = null;
+		if (list < overflow) {
+			occupied[list / slotsPerLevel] &= ~(1L << (list & slotMask));
+		}
+		while (t != null) {
+			final Timer n = t.next;
+			place(t);
+			t = n;
+		}
+	}
+
+	/**
+	 * Moves the current time of the wheel forward. The timers of the higher level
+	 * slots that begin at or before the new time are moved to the lower levels.
+	 * Must not be called with a time beyond the earliest deadline.
+	 */
+	private void advance(final long to) {
+		if (to <= now) {
+			return;
+		}
+		final long from = now;
+		now = to;
+		if ((from >>> (slotBits * levels)) != (to >>> (slotBits * levels))) {
+			redistribute(overflow);
+		}
+		for (int level = levels - 1; level > 0; level--) {
+			final int shift = slotBits * level;
+			if ((from >>> shift) != (to >>> shift)) {
+				redistribute(level * slotsPerLevel + ((int) (to >>> shift) & slotMask));
+			}
+		}
+	}
+
+	/**
+	 * Finds the earliest deadline amongst the timers
+	 */
+	private long findNextDeadline() {
+		for (int level = 0; level < levels; level++) {
+			final int shift = slotBits * level;
+			final int current = (int) (now >>> shift) & slotMask;
+			// Only the slots not before the current one are used at this level
+			final long candidates = occupied[level] & (-1L << current);
+			if (candidates != 0) {
+				final int slot = Long.numberOfTrailingZeros(candidates);
+				if (level == 0) {
+					return (now & ~(long) slotMask) | slot;
+				}
+				return earliestIn(level * slotsPerLevel + slot);
+			}
+		}
+		return earliestIn(overflow);
+	}
+
+	private long earliestIn(final int list) {
+		long min = Long.MAX_VALUE;
+		for (Timer t = heads[list]; t != null; t = t.next) {
+			if (t.deadline < min) {
+				min = t.deadline;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * Ensures we are notified by Timed at the earliest deadline
+	 */
+	private void updateSubscription() {
+		if (deadlineDirty) {
+			nextDeadline = findNextDeadline();
+			deadlineDirty = false;
+		}
+		if (size == 0) {
+			nextDeadline = Long.MAX_VALUE;
+			if (isSubscribed()) {
+				unsubscribe();
+			}
+			return;
+		}
+		final long delay = nextDeadline - Timed.getFireCount();
+		if (!isSubscribed()) {
+			subscribe(delay);
+		} else if (getNextEvent() != nextDeadline) {
+			updateFrequency(delay);
+		}
+	}
+
+	/**
+	 * Expires all timers that have reached their deadline, then arranges the next
+	 * notification.
+	 */
+	@Override
+	public void tick(final long fires) {
+		advance(fires);
+		final int slot = (int) fires & slotMask;
+		if ((occupied[0] & (1L << slot)) != 0) {
+			// All timers in the current level 0 slot are due
+			final Timer first = heads[slot];
+			heads[expiring] = first;
+			tails[expiring] = tails[slot];
+			heads[slot] = tails[slot] = null;
+			occupied[0] &= ~(1L << slot);
+			for (Timer t = first; t != null; t = t.next) {
+				t.list = expiring;
+			}
+			inTick = true;
+			try {
+				Timer t;
+				while ((t = heads[expiring]) != null) {
+					unlink(t);
+					size--;
+					t.expire(fires);
+				}
+			} finally {
+				inTick = false;
+			}
+		}
+		deadlineDirty = true;
+		updateSubscription();
+	}
+}
@@ -28,6 +28,7 @@ import java.util.HashMap;
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
 import hu.mta.sztaki.lpds.cloud.simulator.energy.specialized.IaaSEnergyMeter;
 import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.MetricsRegistry;
 import hu.mta.sztaki.lpds.cloud.simulator.examples.util.DCCreation;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.FileBasedTraceProducerFactory;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
@@ -48,7 +49,7 @@ import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
  * <li>When dispatching jobs to VMs, this sample does not consider CPU and
  * memory requirements of the jobs. It just dispatches a job which takes the
  * same time as specified in the trace but the job will always fill the complete
- * VM.</li>
+ * VM (unless core packing is switched on, see {@link #corePacking}).</li>
  * <li>Was not tested with any VM consolidation mechanism which might affect the
  * behaviour of various components.</li>
  * </ul>
@@ -58,6 +59,28 @@ import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
  *         Moores University, (c) 2019"
  */
 public class AutoScalingDemo implements TraceExhaustionCallback {
+	/**
+	 * If set, queued jobs are only retried when a VM becomes ready for them,
+	 * instead of polling the queues in every ten seconds.
+	 */
+	public static final boolean wakeOnCapacity = System
+			.getProperty("uk.ac.ljmu.fet.cs.cloud.examples.autoscaler.wakeOnCapacity") != null;
+	/**
+	 * If set, multiple jobs can share a VM as long as it has free cores for them
+	 * (see {@link CorePackingJobScheduler})
+	 */
+	public static final boolean corePacking = System
+			.getProperty("uk.ac.ljmu.fet.cs.cloud.examples.autoscaler.corePacking") != null;
+	/**
+	 * If set, the metrics of the simulation are printed periodically (the value of
+	 * the property is the period in simulated ms)
+	 */
+	public static final String metricsPeriodProperty = "uk.ac.ljmu.fet.cs.cloud.examples.autoscaler.metricsPeriod";
+	/**
+	 * The order in which the queued jobs are served, see
+	 * {@link QueueingDiscipline#disciplineProperty}
+	 */
+	private final QueueingDiscipline discipline = QueueingDiscipline.fromSystemProperties();
 
 	/**
 	 * The virtual infrastructure which will receive the jobs
@@ -83,6 +106,15 @@ public class AutoScalingDemo implements TraceExhaustionCallback {
 	 * with the help of a job launcher and queueing mechanism.
 	 */
 	private final JobArrivalHandler jobhandler;
+	/**
+	 * The average queue time of the jobs in seconds (available after the
+	 * simulation)
+	 */
+	private double averageQueueTime;
+	/**
+	 * The energy consumed by the cloud in kWh (available after the simulation)
+	 */
+	private double totalEnergy;
 
 	/**
 	 * Callback handler to do finalise the simulation once all jobs have completed.
@@ -92,6 +124,7 @@ public class AutoScalingDemo implements TraceExhaustionCallback {
 		vi.terminateScalingMechanism();
 		// There is no need to monitor the IaaS either
 		energymeter.stopMeter();
+		MetricsRegistry.global.stopExport();
 	}
 
 	/**
@@ -113,6 +146,8 @@ public class AutoScalingDemo implements TraceExhaustionCallback {
 			throws Exception {
 		if (cores < 4)
 			throw new InvalidParameterException("Per PM core count cannot be lower than 4");
+		// Every simulation starts with fresh metrics
+		MetricsRegistry.global.clear();
 		// Prepares the datacentre
 		cloud = DCCreation.createDataCentre(FirstFitScheduler.class, SchedulingDependentMachines.class, nodes, cores);
 		// Wait until the PM Controllers finish their initial activities
@@ -126,10 +161,16 @@ public class AutoScalingDemo implements TraceExhaustionCallback {
 
 		// Simple job dispatching mechanism which first prepares the workload
 		Progress progress = new Progress(this);
-		JobLauncher launcher = new FirstFitJobScheduler(vi, progress);
-		QueueManager qm = new QueueManager(launcher);
+		JobLauncher launcher = corePacking ? new CorePackingJobScheduler(vi, progress)
+				: new FirstFitJobScheduler(vi, progress);
+		QueueManager qm = wakeOnCapacity ? new QueueManager(launcher, vi, discipline)
+				: new QueueManager(launcher, discipline);
 		jobhandler = new JobArrivalHandler(FileBasedTraceProducerFactory.getProducerFromFile(traceFileLoc, 0, 1000000,
 				false, nodes * cores, DCFJob.class), launcher, qm, progress);
+		if (vi instanceof JobArrivalHandler.ArrivalListener) {
+			// The autoscaler forecasts based on the arrivals
+			jobhandler.addArrivalListener((JobArrivalHandler.ArrivalListener) vi);
+		}
 		jobhandler.processTrace();
 
 		// Collecting basic monitoring information
@@ -139,6 +180,10 @@ public class AutoScalingDemo implements TraceExhaustionCallback {
 		}
 		// Collects energy related details in every hour
 		energymeter.startMeter(3600000, true);
+		final String metricsPeriod = System.getProperty(metricsPeriodProperty);
+		if (metricsPeriod != null) {
+			MetricsRegistry.global.startExport(Long.parseLong(metricsPeriod), System.out);
+		}
 	}
 
 	/**
@@ -164,10 +209,15 @@ public class AutoScalingDemo implements TraceExhaustionCallback {
 					/ (simuTimespan * pm.getPerTickProcessingPower());
 		}
 		System.out.println("Average utilisation of PMs: " + 100 * totutil / cloud.machines.size() + " %");
-		System.out.println("Total power consumption: " + energymeter.getTotalConsumption() / 1000 / 3600000 + " kWh");
-		System.out.println("Average queue time: " + jobhandler.getAverageQueueTime() + " s");
+		totalEnergy = energymeter.getTotalConsumption() / 1000 / 3600000;
+		averageQueueTime = jobhandler.getAverageQueueTime();
+		System.out.println("Total power consumption: " + totalEnergy + " kWh");
+		System.out.println("Average queue time (" + discipline + "): " + averageQueueTime + " s");
+		System.out.println("Queue time statistics [s]: " + jobhandler.getQueueTimeStats());
+		System.out.println("Response time statistics [s]: " + jobhandler.getResponseTimeStats());
 		System.out.println("Number of virtual appliances registered at the end of the simulation: "
 				+ cloud.repositories.get(0).contents().size());
+		MetricsRegistry.global.printSnapshot(System.out);
 	}
 
 	/**
@@ -180,14 +230,33 @@ public class AutoScalingDemo implements TraceExhaustionCallback {
 	 * <li>The number of CPU cores a single machine in the cloud should have</li>
 	 * <li>The number of physical machines the cloud should have</li>
 	 * <li>The auto scaler mechanism to be used in conjunction with the virtual
-	 * infrastructure that will run the jobs from the trace</li>
+	 * infrastructure that will run the jobs from the trace. If a comma separated
+	 * list of auto scalers is given, then the trace is simulated with each of
+	 * them one after the other, and their queue time and energy consumption is
+	 * compared at the end (e.g., to evaluate {@link PredictiveVI} against
+	 * {@link ThresholdBasedVI}).</li>
 	 * </ol>
 	 * 
 	 * @param args the CLI arguments
 	 * @throws Exception On any issue this application terminates with a stack trace
 	 */
+	@SuppressWarnings("unchecked")
 	public static void main(String[] args) throws Exception {
-		new AutoScalingDemo(Integer.parseInt(args[1]), Integer.parseInt(args[2]), args[0],
-				(Class<? extends VirtualInfrastructure>) Class.forName(args[3])).simulateAndprintStatistics();
+		final String[] viclasses = args[3].split(",");
+		final StringBuilder comparison = new StringBuilder("Auto scaler\tAverage queue time [s]\tEnergy [kWh]\n");
+		for (String viclass : viclasses) {
+			if (viclasses.length > 1) {
+				// Every auto scaler starts from a clean simulator state
+				Timed.resetTimed();
+			}
+			final AutoScalingDemo demo = new AutoScalingDemo(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+					args[0], (Class<? extends VirtualInfrastructure>) Class.forName(viclass));
+			demo.simulateAndprintStatistics();
+			comparison.append(viclass).append('\t').append(demo.averageQueueTime).append('\t')
+					.append(demo.totalEnergy).append('\n');
+		}
+		if (viclasses.length > 1) {
+			System.out.print(comparison);
+		}
 	}
 }
\ No newline at end of file
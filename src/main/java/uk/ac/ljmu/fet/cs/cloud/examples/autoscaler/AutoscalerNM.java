@@ -60,21 +60,15 @@ public class AutoscalerNM extends VirtualInfrastructure {
 			if (vmSet.size() < numSpareVMs) {
 				requestVM(vmKind);
 			}
-			// list of VMs that are not being used
-			final ArrayList<VirtualMachine> unusedVMs = new ArrayList<VirtualMachine>();
-			for (VirtualMachine vm : vmSet) {
-				// logic to determine if VM is unused
-				if (vm.underProcessing.isEmpty() && vm.toBeAdded.isEmpty()) {
-					unusedVMs.add(vm);
-				}
-			}
-			if (unusedVMs.size() == numSpareVMs) {
-				if (unusedVMs.size() == vmSet.size()) {
+			// number of VMs that are not being used
+			final int unusedVMs = getIdleVMs(vmKind).size();
+			if (unusedVMs == numSpareVMs) {
+				if (unusedVMs == vmSet.size()) {
 					// all VMs are unused so destroy the VMs
 					destroyVM(vmSet.get(vmSet.size() - 1));
 				}
 			} else {
-				if (unusedVMs.size() > numSpareVMs) {
+				if (unusedVMs > numSpareVMs) {
 					// We have more VMs than we need so drop one and decrease number of VMs to keep
 					// spare
 					destroyVM(vmSet.get(0));
@@ -0,0 +1,245 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.resourcemodel.ResourceConsumption;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.resourcemodel.ResourceConsumption.ConsumptionEvent;
+import hu.mta.sztaki.lpds.cloud.simulator.io.NetworkNode.NetworkException;
+
+/**
+ * A job launcher that places several jobs on a single VM as long as the VM has
+ * enough free CPU cores for them. Every job uses as many cores as its processor
+ * count (but at most the VM's core count), and its execution is limited to the
+ * processing power of those cores.
+ * 
+ * The launcher keeps the VMs it has partially filled indexed by their free core
+ * count, and takes a new VM from the virtual infrastructure's ready VMs only if
+ * none of the partially filled ones could host the job. Towards the virtual
+ * infrastructure a VM is in use from its first job till its last job
+ * completes, but every job placed on it is reported.
+ */
+public class CorePackingJobScheduler implements JobLauncher {
+	/**
+	 * The packing details of a VM with jobs on it
+	 */
+	private static class PackedVM {
+		final VirtualMachine vm;
+		/**
+		 * The number of cores the VM has
+		 */
+		final int cores;
+		/**
+		 * The processing power of a single core of the VM
+		 */
+		final double perCoreProcessing;
+		/**
+		 * The cores not used by any jobs
+		 */
+		int freeCores;
+
+		PackedVM(final VirtualMachine vm) {
+			this.vm = vm;
+			cores = (int) vm.getResourceAllocation().allocated.getRequiredCPUs();
+			perCoreProcessing = vm.getPerTickProcessingPower() / cores;
+			freeCores = cores;
+		}
+	}
+
+	/**
+	 * Notifies the launcher once a job completes and releases its cores.
+	 */
+	private class JobCompletion implements ConsumptionEvent {
+		private final PackedVM host;
+		private final int usedCores;
+		private final Job job;
+
+		public JobCompletion(final PackedVM host, final int usedCores, final Job job) {
+			this.job = job;
+			this.host = host;
+			this.usedCores = usedCores;
+		}
+
+		@Override
+		public void conComplete() {
+			releaseCores(host, usedCores);
+			job.completed();
+			progress.registerCompletion();
+		}
+
+		/**
+		 * In the applied setup here, we cannot have a notification like this so it
+		 * is ignored.
+		 */
+		@Override
+		public void conCancelled(ResourceConsumption problematic) {
+			// Ignore
+		}
+	}
+
+	/**
+	 * The virtual infrastructure this launcher will target with its jobs.
+	 */
+	private final VirtualInfrastructure vi;
+	/**
+	 * The object which will receive the progress updates about the various job
+	 * related activities.
+	 */
+	private final Progress progress;
+	/**
+	 * The VMs with jobs on them, that still have free cores. Key: the executable
+	 * kind. Value: the VMs grouped by their free core counts.
+	 */
+	private final HashMap<String, TreeMap<Integer, LinkedHashSet<PackedVM>>> partiallyUsed = new HashMap<String, TreeMap<Integer, LinkedHashSet<PackedVM>>>();
+
+	/**
+	 * Constructs the scheduler and saves the input data so the scheduler will know
+	 * where to submit jobs and where to report their statuses.
+	 * 
+	 * @param vi The infrastructure to use for the execution of the given tasks.
+	 * @param pr The object to report the job statuses.
+	 */
+	public CorePackingJobScheduler(final VirtualInfrastructure vi, final Progress pr) {
+		this.vi = vi;
+		this.progress = pr;
+	}
+
+	/**
+	 * Places the job on the partially used VM with the fewest free cores that can
+	 * still host it, or on a new ready VM if there is no such VM.
+	 * 
+	 * @param j the job to be sent to one of the VM's in the virtual infrastructure
+	 * @return <i>true</i> if the job cannot be assigned to any of the
+	 *         infrastruture's VMs. <i>false</i> if the job was taken care of and
+	 *         there is no further action needed on it.
+	 */
+	@Override
+	public boolean launchAJob(final Job j) {
+		if (vi.vmSetPerKind.get(j.executable) == null) {
+			// The job's executable is not supported by any VMs. We need to ask the VI to
+			// manage VMs with this kind of executable as well.
+			vi.regNewVMKind(j.executable == null ? "default" : j.executable);
+			return true;
+		}
+		final int requested = Math.max(1, j.nprocs);
+		PackedVM host = null;
+		final TreeMap<Integer, LinkedHashSet<PackedVM>> candidates = partiallyUsed.get(j.executable);
+		if (candidates != null) {
+			final Map.Entry<Integer, LinkedHashSet<PackedVM>> e = candidates.ceilingEntry(requested);
+			if (e != null) {
+				host = e.getValue().iterator().next();
+			}
+		}
+		if (host == null) {
+			final VirtualMachine vm = vi.getReadyVM(j.executable);
+			if (vm == null) {
+				return true;
+			}
+			host = new PackedVM(vm);
+		}
+		// Jobs larger than the VM will use the whole VM
+		final int used = Math.min(requested, host.cores);
+		try {
+			host.vm.newComputeTask(j.getExectimeSecs() * 1000 * host.perCoreProcessing * used,
+					host.perCoreProcessing * used, new JobCompletion(host, used, j));
+		} catch (NetworkException ne) {
+			// Not expected
+			throw new RuntimeException(ne);
+		}
+		updateFreeCores(host, host.freeCores - used);
+		vi.jobStarted(host.vm);
+		progress.registerDispatch(j);
+		j.started();
+		return false;
+	}
+
+	/**
+	 * Packs the jobs of the batch one after the other. Once a job is rejected and
+	 * there are no partially used VMs left for the kind, the rest of the batch is
+	 * rejected at once.
+	 */
+	@Override
+	public void launchJobs(final List<Job> jobs, final List<Job> rejected) {
+		final String kind = jobs.get(0).executable;
+		final int size = jobs.size();
+		for (int i = 0; i < size; i++) {
+			final Job j = jobs.get(i);
+			if (launchAJob(j)) {
+				final TreeMap<Integer, LinkedHashSet<PackedVM>> candidates = partiallyUsed.get(kind);
+				if (candidates == null || candidates.isEmpty()) {
+					rejected.addAll(jobs.subList(i, size));
+					return;
+				}
+				rejected.add(j);
+			}
+		}
+	}
+
+	/**
+	 * Gives back the cores of a completed job to its VM. If the VM becomes empty,
+	 * it is returned to the virtual infrastructure, otherwise the infrastructure
+	 * is told that there is capacity available for the kind.
+	 */
+	private void releaseCores(final PackedVM host, final int cores) {
+		updateFreeCores(host, host.freeCores + cores);
+		if (host.freeCores == host.cores) {
+			vi.jobFinished(host.vm);
+		} else {
+			vi.capacityFreed(host.vm.getVa().id);
+		}
+	}
+
+	/**
+	 * Moves a VM to the group of its new free core count. Full and empty VMs are
+	 * not kept in the groups.
+	 */
+	private void updateFreeCores(final PackedVM host, final int newFree) {
+		final String kind = host.vm.getVa().id;
+		TreeMap<Integer, LinkedHashSet<PackedVM>> groups = partiallyUsed.get(kind);
+		if (groups == null) {
+			groups = new TreeMap<Integer, LinkedHashSet<PackedVM>>();
+			partiallyUsed.put(kind, groups);
+		}
+		if (host.freeCores > 0 && host.freeCores < host.cores) {
+			final LinkedHashSet<PackedVM> old = groups.get(host.freeCores);
+			old.remove(host);
+			if (old.isEmpty()) {
+				groups.remove(host.freeCores);
+			}
+		}
+		host.freeCores = newFree;
+		if (newFree > 0 && newFree < host.cores) {
+			LinkedHashSet<PackedVM> group = groups.get(newFree);
+			if (group == null) {
+				group = new LinkedHashSet<PackedVM>();
+				groups.put(newFree, group);
+			}
+			group.add(host);
+		}
+	}
+}
@@ -22,7 +22,7 @@
  */
 package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
 
-import java.util.ArrayList;
+import java.util.List;
 
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
@@ -39,7 +39,47 @@ import hu.mta.sztaki.lpds.cloud.simulator.io.NetworkNode.NetworkException;
  * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
  *         Moores University, (c) 2019"
  */
-public class FirstFitJobScheduler implements JobLauncher, ConsumptionEvent {
+public class FirstFitJobScheduler implements JobLauncher {
+	/**
+	 * Notifies the virtual infrastructure and the progress tracker once a job
+	 * completes on its VM.
+	 */
+	private class JobCompletion implements ConsumptionEvent {
+		/**
+		 * The VM hosting the job
+		 */
+		private final VirtualMachine vm;
+		/**
+		 * The job that was running
+		 */
+		private final Job job;
+
+		public JobCompletion(final VirtualMachine vm, final Job job) {
+			this.vm = vm;
+			this.job = job;
+		}
+
+		/**
+		 * If a job is done, its VM becomes free and its completion event will be
+		 * registered as a status update against our {@link #progress} object.
+		 */
+		@Override
+		public void conComplete() {
+			vi.jobFinished(vm);
+			job.completed();
+			progress.registerCompletion();
+		}
+
+		/**
+		 * If a job is not executed correctly we would receive this message. In the
+		 * applied setup here, we cannot have a notification like this so it is
+		 * ignored.
+		 */
+		@Override
+		public void conCancelled(ResourceConsumption problematic) {
+			// Ignore
+		}
+	}
 
 	/**
 	 * The virtual infrastructure this launcher will target with its jobs.
@@ -75,57 +115,61 @@ public class FirstFitJobScheduler implements JobLauncher, ConsumptionEvent {
 	 */
 	@Override
 	public boolean launchAJob(final Job j) {
-		try {
-			final ArrayList<VirtualMachine> vmset = vi.vmSetPerKind.get(j.executable);
-			if (vmset != null) {
-				final int vmsetsize = vmset.size();
-				for (int i = 0; i < vmsetsize; i++) {
-					final VirtualMachine vm = vmset.get(i);
-					if (VirtualMachine.State.RUNNING.equals(vm.getState()) && vm.underProcessing.isEmpty()
-							&& vm.toBeAdded.isEmpty()) {
-						// VM has the executable and does not do a thing, ready to accept the job
-
-						// Ignores the processor count of the task, assumes that the full VM will be
-						// used all the time
-						vm.newComputeTask(j.getExectimeSecs() * 1000 * vm.getPerTickProcessingPower(),
-								ResourceConsumption.unlimitedProcessing, this);
-						progress.registerDispatch();
-						j.started();
-
-						// Task is now on the VM. We will receive a conComplete message if it is done.
-						return false;
-					}
-				}
-			} else {
-				// The job's executable is not supported by any VMs. We need to ask the VI to
-				// manage VMs with this kind of executable as well.
-				vi.regNewVMKind(j.executable == null ? "default" : j.executable);
+		if (vi.vmSetPerKind.get(j.executable) != null) {
+			final VirtualMachine vm = vi.getReadyVM(j.executable);
+			if (vm != null) {
+				// VM has the executable and does not do a thing, ready to accept the job
+				startOn(j, vm);
+				// Task is now on the VM. We will receive a conComplete message if it is done.
+				return false;
 			}
-
-		} catch (NetworkException ne) {
-			ne.printStackTrace();
-			// Not expected
-			System.exit(1);
+		} else {
+			// The job's executable is not supported by any VMs. We need to ask the VI to
+			// manage VMs with this kind of executable as well.
+			vi.regNewVMKind(j.executable == null ? "default" : j.executable);
 		}
 		return true;
 	}
 
 	/**
-	 * If a job is done, it's completion event will be registered as a status update
-	 * against our {@link #progress} object.
+	 * Assigns the jobs of the batch to the ready VMs of their kind until the VMs
+	 * run out, the rest of the batch is rejected at once.
 	 */
 	@Override
-	public void conComplete() {
-		progress.registerCompletion();
+	public void launchJobs(final List<Job> jobs, final List<Job> rejected) {
+		final String kind = jobs.get(0).executable;
+		if (vi.vmSetPerKind.get(kind) == null) {
+			vi.regNewVMKind(kind == null ? "default" : kind);
+			rejected.addAll(jobs);
+			return;
+		}
+		final int size = jobs.size();
+		for (int i = 0; i < size; i++) {
+			final VirtualMachine vm = vi.getReadyVM(kind);
+			if (vm == null) {
+				rejected.addAll(jobs.subList(i, size));
+				return;
+			}
+			startOn(jobs.get(i), vm);
+		}
 	}
 
 	/**
-	 * If a job is not executed correctly we would receive this message. In the
-	 * applied setup here, we cannot have a notification like this so it is ignored.
+	 * Sends a job to a ready VM
 	 */
-	@Override
-	public void conCancelled(ResourceConsumption problematic) {
-		// Ignore
+	private void startOn(final Job j, final VirtualMachine vm) {
+		try {
+			// Ignores the processor count of the task, assumes that the full VM will be
+			// used all the time
+			vm.newComputeTask(j.getExectimeSecs() * 1000 * vm.getPerTickProcessingPower(),
+					ResourceConsumption.unlimitedProcessing, new JobCompletion(vm, j));
+		} catch (NetworkException ne) {
+			// Not expected
+			throw new RuntimeException(ne);
+		}
+		vi.jobStarted(vm);
+		progress.registerDispatch(j);
+		j.started();
 	}
 
 }
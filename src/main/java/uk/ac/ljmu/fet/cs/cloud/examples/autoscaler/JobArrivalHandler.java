@@ -22,10 +22,15 @@
  */
 package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.MetricsRegistry;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.RunningStats;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.JobListAnalyser;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.GenericTraceProducer;
@@ -35,12 +40,31 @@ import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.TraceManagementException
  * Processes a trace and sends its jobs to a job launcher. If a job cannot be
  * launched at the moment, it will queue it with the help of a queue manager.
  * 
+ * The handler drops its references to the jobs once they are dispatched or
+ * queued. The queue and response times are collected as running statistics
+ * while the jobs start and complete (this requires the trace to consist of
+ * {@link DCFJob}s), so no job needs to be kept till the end of the simulation.
+ * 
  * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
  *         Moores University, (c) 2019"
  */
-public class JobArrivalHandler extends Timed {
+public class JobArrivalHandler extends Timed implements DCFJob.LifecycleListener {
+	/**
+	 * Allows parties (e.g., predictive autoscalers) to observe the jobs as they
+	 * become due.
+	 */
+	public static interface ArrivalListener {
+		/**
+		 * A job has arrived, it is about to be launched or queued
+		 * 
+		 * @param j the job that became due
+		 */
+		void jobArrived(Job j);
+	}
+
 	/**
-	 * All jobs to be handled
+	 * All jobs to be handled, the entries are cleared once the jobs are passed to
+	 * the launcher
 	 */
 	private final List<Job> jobs;
 	private final int totaljobcount;
@@ -56,6 +80,30 @@ public class JobArrivalHandler extends Timed {
 	 * The job to be executed next
 	 */
 	private int currIndex = 0;
+	/**
+	 * Those who should know about the arrivals
+	 */
+	private final ArrayList<ArrivalListener> arrivalListeners = new ArrayList<ArrivalListener>();
+	/**
+	 * The jobs arriving at the current time instance grouped by their
+	 * executables. The lists are reused amongst the ticks.
+	 */
+	private final LinkedHashMap<String, ArrayList<Job>> batch = new LinkedHashMap<String, ArrayList<Job>>();
+	/**
+	 * Collects the jobs rejected by the launcher
+	 */
+	private final ArrayList<Job> rejected = new ArrayList<Job>();
+	private final MetricsRegistry.Counter arrivedJobs = MetricsRegistry.global.counter("jobs.arrived");
+	private final MetricsRegistry.Counter queuedJobs = MetricsRegistry.global.counter("jobs.queued");
+	/**
+	 * The real queue times of the started jobs in seconds
+	 */
+	private final RunningStats queueTimes = new RunningStats();
+	/**
+	 * The time between the submission and the completion of the completed jobs
+	 * in seconds
+	 */
+	private final RunningStats responseTimes = new RunningStats();
 
 	/**
 	 * Loads the trace and analyses it to prepare all its jobs for scheduling.
@@ -93,6 +141,16 @@ public class JobArrivalHandler extends Timed {
 		this.qm = qm;
 		totaljobcount = jobs.size();
 		pr.setTotalJobCount(totaljobcount);
+		DCFJob.setLifecycleListener(this);
+	}
+
+	/**
+	 * Registers someone to be notified about every job arrival
+	 * 
+	 * @param l the listener to be notified
+	 */
+	public void addArrivalListener(final ArrivalListener l) {
+		arrivalListeners.add(l);
 	}
 
 	/**
@@ -103,8 +161,8 @@ public class JobArrivalHandler extends Timed {
 	}
 
 	/**
-	 * Checks if a job is due at the moment, if so, it dispatches it. If it cannot
-	 * be dispatched, it queues it.
+	 * Checks if jobs are due at the moment, if so, it dispatches them in batches
+	 * (one for each executable). The jobs that cannot be dispatched are queued.
 	 */
 	@Override
 	public void tick(long currTime) {
@@ -113,17 +171,27 @@ public class JobArrivalHandler extends Timed {
 			final long submittime = toprocess.getSubmittimeSecs() * 1000;
 			if (currTime == submittime) {
 				// Job is due
-				if (launcher.launchAJob(toprocess)) {
-					// infra was not capable to host the job, let's queue it
-					qm.add(toprocess);
+				arrivedJobs.inc();
+				for (int l = 0; l < arrivalListeners.size(); l++) {
+					arrivalListeners.get(l).jobArrived(toprocess);
 				}
+				ArrayList<Job> sameKind = batch.get(toprocess.executable);
+				if (sameKind == null) {
+					sameKind = new ArrayList<Job>();
+					batch.put(toprocess.executable, sameKind);
+				}
+				sameKind.add(toprocess);
+				// From now on the launcher or the queue takes care of the job
+				jobs.set(i, null);
 				currIndex = i + 1;
 			} else if (currTime < submittime) {
+				launchBatch();
 				// Nothing to do now, let's wait till the next job is due
 				updateFrequency(submittime - currTime);
 				return;
 			}
 		}
+		launchBatch();
 		if (currIndex == totaljobcount) {
 			// No further jobs, so no further dispatching
 			System.out.println("Last job arrived, dispatching mechanism is terminated.");
@@ -131,18 +199,58 @@ public class JobArrivalHandler extends Timed {
 		}
 	}
 
+	/**
+	 * Sends the collected jobs to the launcher, then queues the jobs the launcher
+	 * could not take.
+	 */
+	private void launchBatch() {
+		for (ArrayList<Job> sameKind : batch.values()) {
+			if (!sameKind.isEmpty()) {
+				launcher.launchJobs(sameKind, rejected);
+				sameKind.clear();
+			}
+		}
+		if (!rejected.isEmpty()) {
+			// infra was not capable to host these jobs, let's queue them
+			qm.addAll(rejected);
+			queuedJobs.add(rejected.size());
+			rejected.clear();
+		}
+	}
+
 	/**
 	 * An aggregate queue time metric can be queried here to tell how did the
-	 * virtual infrastructure performed. This should be queried only after all jobs
-	 * have completed.
+	 * virtual infrastructure performed. It covers the jobs started so far.
 	 * 
-	 * @return the average queue time of all jobs in the trace.
+	 * @return the average queue time of the started jobs in the trace.
 	 */
 	public double getAverageQueueTime() {
-		double totqt = 0;
-		for (int i = 0; i < totaljobcount; i++) {
-			totqt += jobs.get(i).getRealqueueTime();
-		}
-		return totqt / jobs.size();
+		return queueTimes.getMean();
+	}
+
+	/**
+	 * @return the statistics of the real queue times (in seconds) of the jobs
+	 *         started so far
+	 */
+	public RunningStats getQueueTimeStats() {
+		return queueTimes;
+	}
+
+	/**
+	 * @return the statistics of the time between the submission and completion
+	 *         (in seconds) of the jobs completed so far
+	 */
+	public RunningStats getResponseTimeStats() {
+		return responseTimes;
+	}
+
+	@Override
+	public void jobStarted(final DCFJob j) {
+		queueTimes.record(j.getRealqueueTime());
+	}
+
+	@Override
+	public void jobCompleted(final DCFJob j) {
+		responseTimes.record(j.getRealstopTime());
 	}
 }
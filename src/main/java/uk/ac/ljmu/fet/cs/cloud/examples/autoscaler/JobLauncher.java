@@ -22,6 +22,8 @@
  */
 package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
 
+import java.util.List;
+
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
 
 /**
@@ -39,4 +41,16 @@ public interface JobLauncher {
 	 *         schedule it now. <i>false</i> otherwise.
 	 */
 	boolean launchAJob(final Job j);
+
+	/**
+	 * Should assign a batch of jobs arriving at the same time to VMs. All jobs of
+	 * the batch have the same executable, so the launcher can match them against
+	 * its available VMs in a single pass.
+	 * 
+	 * @param jobs     The jobs to be scheduled, in their arrival order
+	 * @param rejected The jobs that need further care as it was not possible to
+	 *                 schedule them now should be appended to this list (keeping
+	 *                 their order)
+	 */
+	void launchJobs(final List<Job> jobs, final List<Job> rejected);
 }
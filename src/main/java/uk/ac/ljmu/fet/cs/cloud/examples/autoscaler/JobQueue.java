@@ -0,0 +1,319 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
+/**
+ * The queue of jobs waiting for a single executable kind. The implementations
+ * decide which jobs should be offered to the launcher and in what order (see
+ * {@link QueueingDiscipline}). All operations are at most logarithmic in the
+ * number of queued jobs (apart from the launch attempts themselves).
+ */
+abstract class JobQueue {
+	/**
+	 * Adds a job to the queue
+	 * 
+	 * @param j the job to wait for a VM
+	 */
+	abstract void add(Job j);
+
+	/**
+	 * Tells if there are any jobs in the queue
+	 */
+	abstract boolean isEmpty();
+
+	/**
+	 * Offers the jobs of the queue to the launcher as long as it accepts them.
+	 * 
+	 * @param launcher the launcher to start the jobs with
+	 * @return true if all jobs of the queue were launched
+	 */
+	abstract boolean drain(JobLauncher launcher);
+
+	/**
+	 * Launches the jobs in their arrival order.
+	 */
+	static class Fifo extends JobQueue {
+		private final ArrayDeque<Job> jobs = new ArrayDeque<Job>();
+
+		@Override
+		void add(final Job j) {
+			jobs.addLast(j);
+		}
+
+		@Override
+		boolean isEmpty() {
+			return jobs.isEmpty();
+		}
+
+		@Override
+		boolean drain(final JobLauncher launcher) {
+			while (!jobs.isEmpty()) {
+				if (launcher.launchAJob(jobs.peekFirst())) {
+					// Launch was not successful, no point trying further jobs in the queue
+					return false;
+				}
+				jobs.pollFirst();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A queued job with its arrival sequence number, used to keep the arrival
+	 * order amongst otherwise equal jobs.
+	 */
+	private static class Entry implements Comparable<Entry> {
+		final Job job;
+		final long seq;
+		/**
+		 * Set once the job is launched (used for lazy removal from the secondary
+		 * orderings)
+		 */
+		boolean launched = false;
+
+		Entry(final Job job, final long seq) {
+			this.job = job;
+			this.seq = seq;
+		}
+
+		/**
+		 * Orders by execution time then by arrival
+		 */
+		@Override
+		public int compareTo(final Entry o) {
+			final long e1 = job.getExectimeSecs();
+			final long e2 = o.job.getExectimeSecs();
+			return e1 < e2 ? -1 : e1 > e2 ? 1 : seq < o.seq ? -1 : seq > o.seq ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Launches the shortest job first.
+	 */
+	static class ShortestFirst extends JobQueue {
+		private final PriorityQueue<Entry> heap = new PriorityQueue<Entry>();
+		private long seq = 0;
+
+		@Override
+		void add(final Job j) {
+			heap.add(new Entry(j, seq++));
+		}
+
+		@Override
+		boolean isEmpty() {
+			return heap.isEmpty();
+		}
+
+		@Override
+		boolean drain(final JobLauncher launcher) {
+			while (!heap.isEmpty()) {
+				if (launcher.launchAJob(heap.peek().job)) {
+					return false;
+				}
+				heap.poll();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * EASY style backfilling: the jobs are launched in arrival order, and the
+	 * first job keeps its position while it cannot be launched. Meanwhile, the
+	 * jobs behind it that request fewer processors are offered to the launcher,
+	 * smallest first. The launchers do not tell when the first job could start,
+	 * so there is no shadow time check: backfilled jobs are only limited by being
+	 * smaller than the first one.
+	 * 
+	 * The jobs are also indexed by their processor count. A rejected job size is
+	 * assumed to make all larger jobs rejected as well, so a drain attempts at
+	 * most one rejected launch beyond the first job.
+	 */
+	static class Backfilling extends JobQueue {
+		/**
+		 * The jobs in arrival order
+		 */
+		private final ArrayDeque<Entry> arrivals = new ArrayDeque<Entry>();
+		/**
+		 * The jobs grouped by their processor count, in arrival order within the
+		 * groups
+		 */
+		private final TreeMap<Integer, ArrayDeque<Entry>> bySize = new TreeMap<Integer, ArrayDeque<Entry>>();
+		private long seq = 0;
+		private int size = 0;
+
+		@Override
+		void add(final Job j) {
+			final Entry e = new Entry(j, seq++);
+			arrivals.addLast(e);
+			ArrayDeque<Entry> group = bySize.get(j.nprocs);
+			if (group == null) {
+				group = new ArrayDeque<Entry>();
+				bySize.put(j.nprocs, group);
+			}
+			group.addLast(e);
+			size++;
+		}
+
+		@Override
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * Drops the already launched entries from the front of a deque
+		 */
+		private static void skipLaunched(final ArrayDeque<Entry> q) {
+			while (!q.isEmpty() && q.peekFirst().launched) {
+				q.pollFirst();
+			}
+		}
+
+		private void launched(final Entry e) {
+			e.launched = true;
+			size--;
+		}
+
+		@Override
+		boolean drain(final JobLauncher launcher) {
+			// Regular FIFO processing while the head is accepted
+			while (true) {
+				skipLaunched(arrivals);
+				if (arrivals.isEmpty()) {
+					bySize.clear();
+					return true;
+				}
+				final Entry head = arrivals.peekFirst();
+				if (launcher.launchAJob(head.job)) {
+					break;
+				}
+				arrivals.pollFirst();
+				launched(head);
+				// The head is the oldest job of its group as well
+				final ArrayDeque<Entry> group = bySize.get(head.job.nprocs);
+				skipLaunched(group);
+				if (group.isEmpty()) {
+					bySize.remove(head.job.nprocs);
+				}
+			}
+			// Backfilling with the smaller jobs
+			final int headProcs = arrivals.peekFirst().job.nprocs;
+			Integer procs = bySize.isEmpty() ? null : bySize.firstKey();
+			while (procs != null && procs < headProcs) {
+				final ArrayDeque<Entry> group = bySize.get(procs);
+				skipLaunched(group);
+				while (!group.isEmpty()) {
+					final Entry e = group.peekFirst();
+					if (launcher.launchAJob(e.job)) {
+						// Larger jobs would not fit either
+						return false;
+					}
+					group.pollFirst();
+					launched(e);
+					skipLaunched(group);
+				}
+				bySize.remove(procs);
+				procs = bySize.higherKey(procs);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The queued jobs of a single user for fair share queueing
+	 */
+	private static class UserQueue implements Comparable<UserQueue> {
+		final ArrayDeque<Job> jobs = new ArrayDeque<Job>();
+		/**
+		 * The processing time (processors * execution seconds) consumed by the
+		 * launched jobs of the user
+		 */
+		long usage = 0;
+		/**
+		 * When did the user last join the heap, to keep the arrival order amongst
+		 * users with the same usage
+		 */
+		long seq;
+
+		@Override
+		public int compareTo(final UserQueue o) {
+			return usage < o.usage ? -1 : usage > o.usage ? 1 : seq < o.seq ? -1 : seq > o.seq ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Fair share queueing: launches the first job of the user who consumed the
+	 * least processing time so far (via this queue). Within a user, the jobs are
+	 * launched in arrival order.
+	 */
+	static class FairShare extends JobQueue {
+		private final HashMap<String, UserQueue> users = new HashMap<String, UserQueue>();
+		/**
+		 * The users with queued jobs
+		 */
+		private final PriorityQueue<UserQueue> waiting = new PriorityQueue<UserQueue>();
+		private long seq = 0;
+
+		@Override
+		void add(final Job j) {
+			UserQueue uq = users.get(j.user);
+			if (uq == null) {
+				uq = new UserQueue();
+				users.put(j.user, uq);
+			}
+			if (uq.jobs.isEmpty()) {
+				uq.seq = seq++;
+				waiting.add(uq);
+			}
+			uq.jobs.addLast(j);
+		}
+
+		@Override
+		boolean isEmpty() {
+			return waiting.isEmpty();
+		}
+
+		@Override
+		boolean drain(final JobLauncher launcher) {
+			while (!waiting.isEmpty()) {
+				final UserQueue uq = waiting.peek();
+				final Job j = uq.jobs.peekFirst();
+				if (launcher.launchAJob(j)) {
+					return false;
+				}
+				waiting.poll();
+				uq.jobs.pollFirst();
+				uq.usage += j.nprocs * j.getExectimeSecs();
+				if (!uq.jobs.isEmpty()) {
+					uq.seq = seq++;
+					waiting.add(uq);
+				}
+			}
+			return true;
+		}
+	}
+}
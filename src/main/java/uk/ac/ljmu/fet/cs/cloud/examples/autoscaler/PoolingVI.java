@@ -25,6 +25,7 @@ package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Set;
 
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
@@ -87,12 +88,7 @@ public class PoolingVI extends VirtualInfrastructure {
 				requestVM(kind);
 			} else {
 				// Let's detect the current VM utilisation pattern
-				final ArrayList<VirtualMachine> unusedVMs = new ArrayList<VirtualMachine>();
-				for (final VirtualMachine vm : vmset) {
-					if (vm.underProcessing.isEmpty() && vm.toBeAdded.isEmpty()) {
-						unusedVMs.add(vm);
-					}
-				}
+				final Set<VirtualMachine> unusedVMs = getIdleVMs(kind);
 				if (unusedVMs.size() < poolHeadRoom) {
 					// Too many VMs are used in the pool, we need to increase the VM count so new
 					// tasks can already arrive for ready and unused VMs
@@ -123,7 +119,7 @@ public class PoolingVI extends VirtualInfrastructure {
 					unnecessaryHits.remove(kind);
 					if (unusedVMs.size() > poolHeadRoom) {
 						// We have more VMs than we need at the moment, we will drop one
-						destroyVM(unusedVMs.get(0));
+						destroyVM(unusedVMs.iterator().next());
 					}
 				}
 			}
@@ -0,0 +1,196 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+
+/**
+ * An autoscaler that forecasts the job arrivals of every executable and sizes
+ * the virtual infrastructure for the predicted load instead of the current
+ * one. This allows the VMs to be requested before the bursts arrive, hiding
+ * (some of) their boot time from the jobs.
+ * 
+ * The arrivals are received from the {@link JobArrivalHandler}. For every kind,
+ * the number of arrivals per scaling period is smoothed with Holt's linear
+ * (double exponential) method, and the execution time of the jobs is smoothed
+ * exponentially. The number of VMs needed is estimated with Little's law: the
+ * forecast arrival rate times the average execution time gives the number of
+ * jobs expected to be running in parallel.
+ */
+public class PredictiveVI extends VirtualInfrastructure implements JobArrivalHandler.ArrivalListener {
+	/**
+	 * The smoothing factor of the arrival rate level
+	 */
+	public static final double alpha = 0.5;
+	/**
+	 * The smoothing factor of the arrival rate trend
+	 */
+	public static final double beta = 0.3;
+	/**
+	 * The smoothing factor of the execution time average
+	 */
+	public static final double execSmoothing = 0.2;
+	/**
+	 * How many scaling periods ahead we forecast the arrivals (should cover the
+	 * time needed to get a new VM running)
+	 */
+	public static final int lookahead = 2;
+	/**
+	 * The length of the scaling period in seconds (see
+	 * {@link VirtualInfrastructure#startAutoScaling()})
+	 */
+	public static final double periodSecs = 120;
+
+	/**
+	 * The forecasting state of a single executable kind
+	 */
+	private static class KindForecast {
+		/**
+		 * Arrivals since the last scaling decision
+		 */
+		int arrivals = 0;
+		/**
+		 * The smoothed number of arrivals per period
+		 */
+		double level = 0;
+		/**
+		 * The smoothed change of arrivals per period
+		 */
+		double trend = 0;
+		/**
+		 * The smoothed execution time of the jobs (in seconds), negative until the
+		 * first job arrives
+		 */
+		double execTime = -1;
+		/**
+		 * The number of consecutive periods we found all VMs unused with no jobs
+		 * forecast
+		 */
+		int unnecessaryHits = 0;
+
+		/**
+		 * Updates the smoothed values with the arrivals of the past period
+		 */
+		void endPeriod() {
+			final double prevLevel = level;
+			level = alpha * arrivals + (1 - alpha) * (level + trend);
+			trend = beta * (level - prevLevel) + (1 - beta) * trend;
+			arrivals = 0;
+		}
+
+		/**
+		 * Estimates the number of jobs running in parallel in the near future
+		 */
+		double expectedParallelJobs() {
+			final double forecast = Math.max(0, level + lookahead * trend);
+			return execTime < 0 ? 0 : forecast / periodSecs * execTime;
+		}
+	}
+
+	/**
+	 * The forecasts for each executable kind
+	 */
+	private final HashMap<String, KindForecast> forecasts = new HashMap<String, KindForecast>();
+
+	/**
+	 * Initialises the auto scaling mechanism
+	 * 
+	 * @param cloud the physical infrastructure to use to rent the VMs from
+	 */
+	public PredictiveVI(final IaaSService cloud) {
+		super(cloud);
+	}
+
+	/**
+	 * Records the arrival of a job for the forecasts
+	 */
+	@Override
+	public void jobArrived(final Job j) {
+		final String kind = j.executable == null ? "default" : j.executable;
+		KindForecast f = forecasts.get(kind);
+		if (f == null) {
+			f = new KindForecast();
+			forecasts.put(kind, f);
+		}
+		f.arrivals++;
+		final double exec = j.getExectimeSecs();
+		f.execTime = f.execTime < 0 ? exec : execSmoothing * exec + (1 - execSmoothing) * f.execTime;
+	}
+
+	/**
+	 * The auto scaling mechanism that is run regularly to determine if the virtual
+	 * infrastructure needs some changes. The logic is the following:
+	 * <ul>
+	 * <li>the arrival forecasts are updated with the arrivals of the past two
+	 * minutes</li>
+	 * <li>if we have fewer VMs than the number of jobs expected to run in
+	 * parallel, a new VM is requested</li>
+	 * <li>if we have more VMs than needed, an unused VM is destroyed</li>
+	 * <li>if there are no jobs expected and all VMs are unused for an hour, the
+	 * VMs of the kind are dropped. <i>After this, one has to re-register the VM
+	 * kind to receive new VMs.</i></li>
+	 * </ul>
+	 */
+	@Override
+	public void tick(long fires) {
+		final Iterator<String> kinds = vmSetPerKind.keySet().iterator();
+		while (kinds.hasNext()) {
+			final String kind = kinds.next();
+			final ArrayList<VirtualMachine> vmset = vmSetPerKind.get(kind);
+			KindForecast f = forecasts.get(kind);
+			if (f == null) {
+				f = new KindForecast();
+				forecasts.put(kind, f);
+			}
+			f.endPeriod();
+			final int needed = (int) Math.ceil(f.expectedParallelJobs());
+			if (vmset.isEmpty() || vmset.size() < needed) {
+				// Getting ready for the upcoming load
+				f.unnecessaryHits = 0;
+				requestVM(kind);
+				continue;
+			}
+			final int unused = getIdleVMs(kind).size();
+			if (needed == 0 && unused == vmset.size()) {
+				// No load is expected, we keep the last VMs for an hour just in case
+				if (++f.unnecessaryHits >= 30) {
+					while (!vmset.isEmpty()) {
+						destroyVM(vmset.get(vmset.size() - 1));
+					}
+					forecasts.remove(kind);
+					kinds.remove();
+				}
+				continue;
+			}
+			f.unnecessaryHits = 0;
+			if (vmset.size() > Math.max(1, needed) && unused > 0) {
+				// More VMs than the forecast load requires
+				destroyVM(getIdleVMs(kind).iterator().next());
+			}
+		}
+	}
+}
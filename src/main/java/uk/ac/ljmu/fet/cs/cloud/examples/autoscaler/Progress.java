@@ -22,8 +22,15 @@
  */
 package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
 
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.Histogram;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.MetricsRegistry;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
 /**
- * State exchange mechanism between JobLaunchers, JobArrivalHandlers
+ * State exchange mechanism between JobLaunchers, JobArrivalHandlers. The
+ * progress is also reported in the {@link MetricsRegistry#global} registry
+ * (jobs.dispatched, jobs.completed and the jobs.queueTimeMs histogram).
  * 
  * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
  *         Moores University, (c) 2019"
@@ -32,11 +39,15 @@ public class Progress {
 	/**
 	 * The number of jobs that have reached the infrastructure's VMs
 	 */
-	private int jobsDispatched = 0;
+	private final MetricsRegistry.Counter jobsDispatched = MetricsRegistry.global.counter("jobs.dispatched");
 	/**
 	 * The number of jobs that have actually completed their tasks
 	 */
-	private int jobsDone = 0;
+	private final MetricsRegistry.Counter jobsDone = MetricsRegistry.global.counter("jobs.completed");
+	/**
+	 * The time the jobs spent between their submission and their dispatch
+	 */
+	private final Histogram queueTimes = MetricsRegistry.global.histogram("jobs.queueTimeMs");
 	/**
 	 * The total number of jobs this simulation has
 	 */
@@ -57,12 +68,16 @@ public class Progress {
 	}
 
 	/**
-	 * Remembers how many jobs were dispatched to their corresponding VMs. If all
-	 * jobs have been dispatched, a message is printed on the screen.
+	 * Remembers how many jobs were dispatched to their corresponding VMs and how
+	 * long they have waited. If all jobs have been dispatched, a message is
+	 * printed on the screen.
+	 * 
+	 * @param j the job that was just dispatched
 	 */
-	public void registerDispatch() {
-		jobsDispatched++;
-		if (jobsDispatched == jobCount) {
+	public void registerDispatch(final Job j) {
+		jobsDispatched.inc();
+		queueTimes.record(Timed.getFireCount() - j.getSubmittimeSecs() * 1000);
+		if (jobsDispatched.get() == jobCount) {
 			System.out.println("Last job reached a VM");
 		}
 	}
@@ -73,10 +88,10 @@ public class Progress {
 	 * object.
 	 */
 	public void registerCompletion() {
-		jobsDone++;
+		jobsDone.inc();
 		// Finally let's see if there is any more need for the support mechanisms of the
 		// simulation (e.g., autoscaler)
-		if (jobsDone == jobCount) {
+		if (jobsDone.get() == jobCount) {
 			callback.allJobsFinished();
 		}
 	}
@@ -101,6 +116,6 @@ public class Progress {
 	 *         VMs.
 	 */
 	public int getDoneJobCount() {
-		return jobsDone;
+		return (int) jobsDone.get();
 	}
 }
@@ -22,9 +22,9 @@
  */
 package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
 
-import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
@@ -32,15 +32,19 @@ import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
 /**
  * Allows a jobs to be queued if it was not possible to find an acceptable VM
  * for it at a given moment. This class will periodically retry starting the job
- * with the help of a specified job launcher.
+ * with the help of a specified job launcher. The retries are either done
+ * periodically (every ten seconds while there are queued jobs), or, if the
+ * queue manager is constructed with a virtual infrastructure, whenever a VM of
+ * the infrastructure becomes ready to accept a job. In the latter case only the
+ * queue of the VM's kind is retried.
  * 
- * This class does not provide any queue reordering features (e.g., job
- * priorities, and other QoS metrics)
+ * The order of the jobs within the queue of a particular executable is decided
+ * by a {@link QueueingDiscipline}.
  * 
  * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
  *         Moores University, (c) 2019"
  */
-class QueueManager extends Timed {
+class QueueManager extends Timed implements VirtualInfrastructure.CapacityListener {
 
 	/**
 	 * The job launcher to with which we can do the job re-submissions
@@ -51,61 +55,115 @@ class QueueManager extends Timed {
 	 * The actual queue. Key: application kind. Value: the list of jobs waiting
 	 * there.
 	 */
-	private final HashMap<String, ArrayDeque<Job>> queued = new HashMap<String, ArrayDeque<Job>>();
+	private final HashMap<String, JobQueue> queued = new HashMap<String, JobQueue>();
+	/**
+	 * Determines the order of the jobs in the queues
+	 */
+	private final QueueingDiscipline discipline;
+	/**
+	 * If true, the queues are only retried when the virtual infrastructure signals
+	 * available capacity, otherwise they are polled periodically.
+	 */
+	private final boolean wakeOnCapacity;
 
 	/**
-	 * Saves the input parameter
+	 * Saves the input parameter, the queues will be served in FIFO order
 	 * 
 	 * @param launcher The job scheduling mechanism to be used when a job retry is
 	 *                 needed.
 	 */
 	public QueueManager(final JobLauncher launcher) {
+		this(launcher, QueueingDiscipline.FIFO);
+	}
+
+	/**
+	 * Creates a queue manager that retries the queued jobs periodically
+	 * 
+	 * @param launcher   The job scheduling mechanism to be used when a job retry
+	 *                   is needed.
+	 * @param discipline The order in which the queued jobs are retried
+	 */
+	public QueueManager(final JobLauncher launcher, final QueueingDiscipline discipline) {
 		this.launcher = launcher;
+		this.discipline = discipline;
+		wakeOnCapacity = false;
+	}
+
+	/**
+	 * Creates a queue manager that retries the queued jobs only when the virtual
+	 * infrastructure has a VM ready for them.
+	 * 
+	 * @param launcher   The job scheduling mechanism to be used when a job retry
+	 *                   is needed.
+	 * @param vi         The infrastructure that the launcher submits the jobs to.
+	 * @param discipline The order in which the queued jobs are retried
+	 */
+	public QueueManager(final JobLauncher launcher, final VirtualInfrastructure vi,
+			final QueueingDiscipline discipline) {
+		this.launcher = launcher;
+		this.discipline = discipline;
+		wakeOnCapacity = true;
+		vi.addCapacityListener(this);
 	}
 
 	/**
 	 * Allows queueing a job, makes sure the queue manager receives updates in every
-	 * ten seconds if there are any jobs on the queue.
+	 * ten seconds if there are any jobs on the queue (unless it waits for capacity
+	 * notifications).
 	 * 
 	 * @param j The job to be queued
 	 */
 	public void add(final Job j) {
-		ArrayDeque<Job> q = queued.get(j.executable);
+		JobQueue q = queued.get(j.executable);
 		if (q == null) {
-			q = new ArrayDeque<Job>();
+			q = discipline.newQueue();
 			queued.put(j.executable, q);
 		}
-		q.push(j);
-		if (!isSubscribed()) {
+		q.add(j);
+		if (!wakeOnCapacity && !isSubscribed()) {
 			subscribe(10000);
 		}
 	}
 
 	/**
-	 * The queue management algorithm will attempt to launch a job if it is first in
-	 * its executable's queue.
+	 * Queues several jobs at once (e.g., the rejected part of a batch)
+	 * 
+	 * @param jobs the jobs to be queued, in their arrival order
+	 */
+	public void addAll(final List<Job> jobs) {
+		final int size = jobs.size();
+		for (int i = 0; i < size; i++) {
+			add(jobs.get(i));
+		}
+	}
+
+	/**
+	 * The queue management algorithm will attempt to launch the jobs of every
+	 * executable's queue in the order of the queueing discipline.
 	 */
 	@Override
 	public void tick(final long fires) {
 		final Iterator<String> kindIter = queued.keySet().iterator();
-		queueChangeLoop: while (kindIter.hasNext()) {
+		while (kindIter.hasNext()) {
 			// The queue for a specific kind of executable
-			final ArrayDeque<Job> q = queued.get(kindIter.next());
-			do {
-				// Launch the current head of the queue
-				if (launcher.launchAJob(q.peekFirst())) {
-					// Launch was not successful, no point trying further jobs in the queue
-					continue queueChangeLoop;
-				} else {
-					// Removes the head as we were successful in dispatching it to the
-					// infrastructure
-					q.pollFirst();
-				}
-			} while (!q.isEmpty());
-			kindIter.remove();
+			if (queued.get(kindIter.next()).drain(launcher)) {
+				kindIter.remove();
+			}
 		}
 		if (queued.size() == 0) {
 			unsubscribe();
 		}
 	}
+
+	/**
+	 * A VM became ready in the virtual infrastructure, so we retry the queue of its
+	 * kind.
+	 */
+	@Override
+	public void capacityAvailable(final String kind) {
+		final JobQueue q = queued.get(kind);
+		if (q != null && q.drain(launcher)) {
+			queued.remove(kind);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
+
+/**
+ * The ways the {@link QueueManager} can order the jobs waiting for a VM. The
+ * queues are kept separately for each executable kind, the discipline decides
+ * the order of the jobs within a kind's queue.
+ */
+public enum QueueingDiscipline {
+	/**
+	 * Jobs are launched in their arrival order
+	 */
+	FIFO {
+		@Override
+		JobQueue newQueue() {
+			return new JobQueue.Fifo();
+		}
+	},
+	/**
+	 * The job with the shortest execution time is launched first (ties are
+	 * resolved in arrival order)
+	 */
+	SJF {
+		@Override
+		JobQueue newQueue() {
+			return new JobQueue.ShortestFirst();
+		}
+	},
+	/**
+	 * Jobs are launched in arrival order, but if the first job cannot be launched,
+	 * the jobs behind it that request fewer processors are tried as well
+	 */
+	BACKFILL {
+		@Override
+		JobQueue newQueue() {
+			return new JobQueue.Backfilling();
+		}
+	},
+	/**
+	 * The jobs of the user with the least processing time consumed so far are
+	 * launched first
+	 */
+	FAIRSHARE {
+		@Override
+		JobQueue newQueue() {
+			return new JobQueue.FairShare();
+		}
+	};
+
+	/**
+	 * The system property to select the discipline used by the autoscaling
+	 * demo
+	 */
+	public static final String disciplineProperty = "uk.ac.ljmu.fet.cs.cloud.examples.autoscaler.queueingDiscipline";
+
+	/**
+	 * Creates an empty queue ordered according to this discipline
+	 */
+	abstract JobQueue newQueue();
+
+	/**
+	 * Determines the discipline requested via the system properties
+	 * 
+	 * @return the discipline named in {@link #disciplineProperty}, FIFO if the
+	 *         property is not set
+	 */
+	public static QueueingDiscipline fromSystemProperties() {
+		final String name = System.getProperty(disciplineProperty);
+		return name == null ? FIFO : valueOf(name.toUpperCase());
+	}
+}
@@ -98,7 +98,7 @@ public class ThresholdBasedVI extends VirtualInfrastructure {
 			} else if (vmset.size() == 1) {
 				final VirtualMachine onlyMachine = vmset.get(0);
 				// We will try to not destroy the last VM from any kind
-				if (onlyMachine.underProcessing.isEmpty() && onlyMachine.toBeAdded.isEmpty()) {
+				if (isIdle(onlyMachine)) {
 					// It has no ongoing computation
 					Integer i = unnecessaryHits.get(onlyMachine);
 					if (i == null) {
@@ -123,17 +123,13 @@ public class ThresholdBasedVI extends VirtualInfrastructure {
 				// Now we allow the check if we need more VMs.
 			} else {
 				boolean destroyed = false;
-				for (int i = 0; i < vmset.size(); i++) {
-					final VirtualMachine vm = vmset.get(i);
-					if (vm.underProcessing.isEmpty() && vm.toBeAdded.isEmpty()) {
-						// The VM has no task on it at the moment, good candidate
-						if (getHourlyUtilisationPercForVM(vm) < minUtilisationLevelBeforeDestruction) {
-							// The VM's load was under 20% in the past hour, we might be able to get rid of
-							// it
-							destroyVM(vm);
-							destroyed = true;
-							i--;
-						}
+				// Only the VMs with no task on them at the moment are good candidates
+				for (final VirtualMachine vm : new ArrayList<VirtualMachine>(getIdleVMs(kind))) {
+					if (getHourlyUtilisationPercForVM(vm) < minUtilisationLevelBeforeDestruction) {
+						// The VM's load was under 20% in the past hour, we might be able to get rid of
+						// it
+						destroyVM(vm);
+						destroyed = true;
 					}
 				}
 				if (destroyed) {
@@ -0,0 +1,289 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
+
+import java.util.Arrays;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+
+/**
+ * Monitors the CPU utilisation of a set of VMs over the past hour. It does so by
+ * querying the total processed activities of all VMs every five minutes (in a
+ * single event), so the utilisation details this class gives out have a
+ * resolution of 5 minutes.
+ * 
+ * Every monitored VM receives a dense id. The samples of the VMs are stored in
+ * a single array where each VM has a ring of 12 consecutive entries starting
+ * at id*12. All rings are written at the same position in a particular sample
+ * round, so the position is shared and only the number of rounds the VM has
+ * been monitored for is kept for each VM.
+ */
+public class UtilisationSampler extends Timed {
+	/**
+	 * The time between two samples
+	 */
+	public static final long sampleInterval = 5 * 60 * 1000;
+	/**
+	 * The number of samples kept for a VM (an hour's worth)
+	 */
+	public static final int samplesPerVM = 12;
+
+	/**
+	 * The VMs monitored, indexed by their ids (null for unused ids)
+	 */
+	private VirtualMachine[] vms = new VirtualMachine[16];
+	/**
+	 * The total processed values of the VMs, samplesPerVM entries for each id.
+	 */
+	private double[] samples = new double[16 * samplesPerVM];
+	/**
+	 * The maximum utilisation possible in an hour for each id. Determined only
+	 * once the VM is running as the VM might not even have any processing
+	 * capabilities beforehand.
+	 */
+	private double[] hourlyPossibleUtil = new double[16];
+	/**
+	 * The sample round when the monitoring of the VM started
+	 */
+	private long[] firstRound = new long[16];
+	/**
+	 * The ids that were released and can be given out again
+	 */
+	private int[] freeIds = new int[16];
+	private int freeIdCount = 0;
+	/**
+	 * The number of ids ever given out (all ids are smaller than this)
+	 */
+	private int idLimit = 0;
+	/**
+	 * The number of VMs monitored at the moment
+	 */
+	private int monitored = 0;
+	/**
+	 * The number of sample rounds done so far
+	 */
+	private long round = 0;
+
+	/**
+	 * Open addressing hash table to find the id of a VM. The keys are compared by
+	 * identity, the slots with a null key are empty.
+	 */
+	private VirtualMachine[] lookupKeys = new VirtualMachine[32];
+	private int[] lookupIds = new int[32];
+
+	/**
+	 * Starts monitoring a VM
+	 * 
+	 * @param vm The VM to monitor
+	 * @return the id of the VM that can be used to query its utilisation
+	 */
+	public int startMon(final VirtualMachine vm) {
+		if (findSlot(vm) >= 0) {
+			throw new IllegalStateException("The VM is already monitored");
+		}
+		final int id;
+		if (freeIdCount > 0) {
+			id = freeIds[--freeIdCount];
+		} else {
+			if (idLimit == vms.length) {
+				grow();
+			}
+			id = idLimit++;
+		}
+		vms[id] = vm;
+		hourlyPossibleUtil[id] = Double.MAX_VALUE;
+		firstRound[id] = round;
+		final int base = id * samplesPerVM;
+		Arrays.fill(samples, base, base + samplesPerVM, vm.getTotalProcessed());
+		insert(vm, id);
+		if (monitored++ == 0) {
+			subscribe(sampleInterval);
+		}
+		return id;
+	}
+
+	/**
+	 * Cancels the monitoring of the VM. Its id might be given out to other VMs
+	 * afterwards.
+	 * 
+	 * @param vm The VM that is no longer needed to be monitored
+	 */
+	public void finishMon(final VirtualMachine vm) {
+		final int slot = findSlot(vm);
+		if (slot < 0) {
+			throw new IllegalStateException("Cannot finish the monitoring of a non-monitored VM");
+		}
+		final int id = lookupIds[slot];
+		remove(slot);
+		vms[id] = null;
+		if (freeIdCount == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+		}
+		freeIds[freeIdCount++] = id;
+		if (--monitored == 0) {
+			unsubscribe();
+		}
+	}
+
+	/**
+	 * Determines the id of a monitored VM
+	 * 
+	 * @param vm the VM in question
+	 * @return the id of the VM or -1 if the VM is not monitored
+	 */
+	public int getId(final VirtualMachine vm) {
+		final int slot = findSlot(vm);
+		return slot < 0 ? -1 : lookupIds[slot];
+	}
+
+	/**
+	 * Allows the user to determine what was the average utilisation level in the
+	 * past hour. Calling this method repeatedly within the next five minutes makes
+	 * no sense as it will only report an updated value in every five minutes.
+	 * 
+	 * @param id the id of the VM as returned by {@link #startMon(VirtualMachine)}
+	 * @return The percentage of CPU utilisation of the VM.
+	 */
+	public double getHourlyUtilisationPerc(final int id) {
+		if (id < 0 || id >= idLimit || vms[id] == null) {
+			throw new IllegalStateException("Cannot get the hourly utilisation for a non-monitored VM");
+		}
+		if (round == firstRound[id]) {
+			return 0;
+		}
+		final int base = id * samplesPerVM;
+		return (samples[base + (int) ((round - 1) % samplesPerVM)] - samples[base + (int) (round % samplesPerVM)])
+				/ possibleUtil(id);
+	}
+
+	/**
+	 * Allows the user to determine what was the average utilisation level of a VM
+	 * in the past hour.
+	 * 
+	 * @param vm the VM in question
+	 * @return The percentage of CPU utilisation of the VM.
+	 */
+	public double getHourlyUtilisationPerc(final VirtualMachine vm) {
+		return getHourlyUtilisationPerc(getId(vm));
+	}
+
+	/**
+	 * Determines the hourly possible utilisation of the VM once it is actually
+	 * running (and thus has a chance to do any activities)
+	 */
+	private double possibleUtil(final int id) {
+		if (hourlyPossibleUtil[id] == Double.MAX_VALUE
+				&& VirtualMachine.State.RUNNING.equals(vms[id].getState())) {
+			hourlyPossibleUtil[id] = vms[id].getPerTickProcessingPower() * 3600000;
+		}
+		return hourlyPossibleUtil[id];
+	}
+
+	/**
+	 * Samples the total processed value of all monitored VMs.
+	 */
+	@Override
+	public void tick(final long fires) {
+		final int pos = (int) (round % samplesPerVM);
+		for (int id = 0; id < idLimit; id++) {
+			final VirtualMachine vm = vms[id];
+			if (vm != null) {
+				samples[id * samplesPerVM + pos] = vm.getTotalProcessed();
+				possibleUtil(id);
+			}
+		}
+		round++;
+	}
+
+	private void grow() {
+		final int newLen = vms.length * 2;
+		vms = Arrays.copyOf(vms, newLen);
+		samples = Arrays.copyOf(samples, newLen * samplesPerVM);
+		hourlyPossibleUtil = Arrays.copyOf(hourlyPossibleUtil, newLen);
+		firstRound = Arrays.copyOf(firstRound, newLen);
+	}
+
+	private int home(final VirtualMachine vm) {
+		final int h = System.identityHashCode(vm) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (lookupKeys.length - 1);
+	}
+
+	/**
+	 * Locates a VM in the lookup table
+	 * 
+	 * @return the slot of the VM or -1 if it is not in the table
+	 */
+	private int findSlot(final VirtualMachine vm) {
+		final int mask = lookupKeys.length - 1;
+		for (int i = home(vm); lookupKeys[i] != null; i = (i + 1) & mask) {
+			if (lookupKeys[i] == vm) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void insert(final VirtualMachine vm, final int id) {
+		if (monitored * 2 >= lookupKeys.length) {
+			final VirtualMachine[] oldKeys = lookupKeys;
+			final int[] oldIds = lookupIds;
+			lookupKeys = new VirtualMachine[oldKeys.length * 2];
+			lookupIds = new int[oldKeys.length * 2];
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != null) {
+					place(oldKeys[i], oldIds[i]);
+				}
+			}
+		}
+		place(vm, id);
+	}
+
+	private void place(final VirtualMachine vm, final int id) {
+		final int mask = lookupKeys.length - 1;
+		int i = home(vm);
+		while (lookupKeys[i] != null) {
+			i = (i + 1) & mask;
+		}
+		lookupKeys[i] = vm;
+		lookupIds[i] = id;
+	}
+
+	/**
+	 * Removes an entry from the lookup table, shifting back the entries of its
+	 * probe sequence so no tombstones are needed.
+	 */
+	private void remove(int slot) {
+		final int mask = lookupKeys.length - 1;
+		int next = (slot + 1) & mask;
+		while (lookupKeys[next] != null) {
+			final int h = home(lookupKeys[next]);
+			// Move the entry back if its home is not between the hole and its slot
+			if (((next - h) & mask) >= ((next - slot) & mask)) {
+				lookupKeys[slot] = lookupKeys[next];
+				lookupIds[slot] = lookupIds[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		lookupKeys[slot] = null;
+	}
+}
@@ -0,0 +1,345 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.MetricsRegistry;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ResourceConstraints;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.resourcemodel.ConsumptionEventAdapter;
+import hu.mta.sztaki.lpds.cloud.simulator.io.NetworkNode.NetworkException;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
+import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
+
+/**
+ * Manages the VAs of a virtual infrastructure in the cloud's central
+ * repository. The repository is used as a cache: VAs are registered when their
+ * kind first needs a VM and they stay there until the space is needed for
+ * another VA. Only the VAs of kinds without VMs are evicted, the victim is
+ * chosen according to the cache's {@link Policy}.
+ *
+ * The most frequently used VAs can also be pre-staged: they are copied to the
+ * local disks of the running PMs in the background. VMs of such VAs can then be
+ * started from the local copy (see {@link #findStagedHost}), avoiding the
+ * transfer from the central repository. The running PMs are visited when a VA
+ * becomes one of the most used ones, later on, only the PMs that are switched
+ * on receive the copies of the most used VAs.
+ */
+public class VACache implements PhysicalMachine.StateChangeListener {
+	/**
+	 * The ways to choose the VA to be evicted from the central repository
+	 */
+	public static enum Policy {
+		/**
+		 * The VA not used for the longest time is evicted
+		 */
+		LRU,
+		/**
+		 * The VA with the least hits per GB is evicted (ties are resolved by LRU)
+		 */
+		LFU;
+
+		/**
+		 * Determines the policy requested via the system properties
+		 *
+		 * @return the policy named in {@link VACache#policyProperty}, LRU if the
+		 *         property is not set
+		 */
+		public static Policy fromSystemProperties() {
+			final String name = System.getProperty(policyProperty);
+			return name == null ? LRU : valueOf(name.toUpperCase());
+		}
+	}
+
+	/**
+	 * The system property to select the eviction policy
+	 */
+	public static final String policyProperty = "uk.ac.ljmu.fet.cs.cloud.examples.autoscaler.vaCachePolicy";
+	/**
+	 * The system property to set how many of the most used VAs should be
+	 * pre-staged on the PMs' local disks (0, the default, disables pre-staging)
+	 */
+	public static final String prestageProperty = "uk.ac.ljmu.fet.cs.cloud.examples.autoscaler.vaPrestage";
+
+	/**
+	 * What we know about a VA we have registered
+	 */
+	private static class Entry {
+		final VirtualAppliance va;
+		/**
+		 * The number of VM requests that used the VA
+		 */
+		long hits = 0;
+		/**
+		 * The sequence number of the last request that used the VA
+		 */
+		long lastUse;
+		/**
+		 * Set while the VA's kind has VMs, the VA cannot be evicted then
+		 */
+		boolean inUse = false;
+		/**
+		 * Set while the VA is amongst the most used ones (i.e., it should be
+		 * pre-staged)
+		 */
+		boolean hot = false;
+		/**
+		 * The local disks that hold a copy of the VA (false values mark copies
+		 * still in transfer)
+		 */
+		final IdentityHashMap<Repository, Boolean> staged = new IdentityHashMap<Repository, Boolean>();
+
+		Entry(final VirtualAppliance va) {
+			this.va = va;
+		}
+	}
+
+	private final IaaSService cloud;
+	private final Repository storage;
+	private final Policy policy;
+	/**
+	 * The number of VAs to keep on the local disks
+	 */
+	private final int prestageCount;
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	/**
+	 * Orders the uses of the VAs
+	 */
+	private long useCounter = 0;
+	private final MetricsRegistry.Counter hits = MetricsRegistry.global.counter("vacache.hits");
+	private final MetricsRegistry.Counter misses = MetricsRegistry.global.counter("vacache.misses");
+	private final MetricsRegistry.Counter evictions = MetricsRegistry.global.counter("vacache.evictions");
+	private final MetricsRegistry.Counter prestaged = MetricsRegistry.global.counter("vacache.prestaged");
+
+	/**
+	 * Creates the cache
+	 *
+	 * @param cloud         the cloud whose PMs are used for pre-staging
+	 * @param storage       the central repository of the cloud
+	 * @param policy        the way to choose the VAs to evict
+	 * @param prestageCount the number of most used VAs to copy to the local
+	 *                      disks
+	 */
+	public VACache(final IaaSService cloud, final Repository storage, final Policy policy, final int prestageCount) {
+		this.cloud = cloud;
+		this.storage = storage;
+		this.policy = policy;
+		this.prestageCount = prestageCount;
+		if (prestageCount > 0) {
+			for (PhysicalMachine pm : cloud.machines) {
+				pm.subscribeStateChangeEvents(this);
+			}
+		}
+	}
+
+	/**
+	 * Offers the VA of a kind for a new VM. If the VA is not in the central
+	 * repository, then it is registered there (evicting unused VAs if needed).
+	 * The kind is considered in use until {@link #release(String)} is called.
+	 *
+	 * @param kind the executable the VM is for
+	 * @return the VA registered in the central repository
+	 * @throws RuntimeException if the repository cannot accommodate the VA even
+	 *                          after evicting all unused VAs
+	 */
+	public VirtualAppliance acquire(final String kind) {
+		Entry e = entries.get(kind);
+		final VirtualAppliance registered = (VirtualAppliance) storage.lookup(kind);
+		if (registered != null) {
+			hits.inc();
+			if (e == null) {
+				// Registered by someone else before
+				e = new Entry(registered);
+				entries.put(kind, e);
+			}
+		} else {
+			misses.inc();
+			// A random sized VMI with a short boot procedure. The approximate size of the
+			// VMI will be 1GB.
+			e = new Entry(new VirtualAppliance(kind, 15, 0, true, 1024 * 1024 * 1024));
+			while (!storage.registerObject(e.va)) {
+				// Storage ran out of space
+				if (!evictOne()) {
+					throw new RuntimeException(
+							"Configured with a repository not big enough to accomodate a the following VA: " + e.va);
+				}
+			}
+			entries.put(kind, e);
+		}
+		e.hits++;
+		e.lastUse = useCounter++;
+		e.inUse = true;
+		if (prestageCount > 0) {
+			final boolean wasHot = e.hot;
+			e.hot = isHot(e);
+			if (e.hot && !wasHot) {
+				for (PhysicalMachine pm : cloud.runningMachines) {
+					prestage(e, pm);
+				}
+			}
+		}
+		return e.va;
+	}
+
+	/**
+	 * Signals that the kind no longer has VMs, so its VA can be evicted if the
+	 * space is needed.
+	 *
+	 * @param kind the executable that became unused
+	 */
+	public void release(final String kind) {
+		final Entry e = entries.get(kind);
+		if (e != null) {
+			e.inUse = false;
+		}
+	}
+
+	/**
+	 * Finds a running PM that holds a copy of the kind's VA on its local disk and
+	 * that has enough free capacity for a VM.
+	 *
+	 * @param kind the executable the VM is for
+	 * @param rc   the resources the VM needs
+	 * @return the PM to host the VM, or null if there is no such PM
+	 */
+	public PhysicalMachine findStagedHost(final String kind, final ResourceConstraints rc) {
+		final Entry e = entries.get(kind);
+		if (e == null || e.staged.isEmpty()) {
+			return null;
+		}
+		for (PhysicalMachine pm : cloud.runningMachines) {
+			if (Boolean.TRUE.equals(e.staged.get(pm.localDisk)) && fits(pm.freeCapacities, rc)) {
+				return pm;
+			}
+		}
+		return null;
+	}
+
+	private static boolean fits(final ResourceConstraints free, final ResourceConstraints rc) {
+		return free.getRequiredCPUs() >= rc.getRequiredCPUs()
+				&& free.getRequiredProcessingPower() >= rc.getRequiredProcessingPower()
+				&& free.getRequiredMemory() >= rc.getRequiredMemory();
+	}
+
+	/**
+	 * Determines if a VA is amongst the most used ones
+	 */
+	private boolean isHot(final Entry e) {
+		int hotter = 0;
+		for (Entry other : entries.values()) {
+			if (other.hits > e.hits && ++hotter >= prestageCount) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the most used VAs to the PMs that were just switched on
+	 */
+	@Override
+	public void stateChanged(final PhysicalMachine pm, final PhysicalMachine.State oldState,
+			final PhysicalMachine.State newState) {
+		if (PhysicalMachine.State.RUNNING.equals(newState)) {
+			for (Entry e : entries.values()) {
+				if (e.hot) {
+					prestage(e, pm);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts copying a VA to a PM if it does not have it yet. The PM must have
+	 * space for the VA and for a VM disk cloned from it.
+	 */
+	private void prestage(final Entry e, final PhysicalMachine pm) {
+		final Repository disk = pm.localDisk;
+		if (disk == null || e.staged.containsKey(disk) || disk.getFreeStorageCapacity() < 2 * e.va.size) {
+			return;
+		}
+		try {
+			if (storage.requestContentDelivery(e.va.id, disk, new ConsumptionEventAdapter() {
+				@Override
+				public void conComplete() {
+					super.conComplete();
+					// The VA might have been evicted during the transfer
+					if (e.staged.containsKey(disk)) {
+						e.staged.put(disk, Boolean.TRUE);
+						prestaged.inc();
+					} else {
+						disk.deregisterObject(e.va.id);
+					}
+				}
+			})) {
+				e.staged.put(disk, Boolean.FALSE);
+			}
+		} catch (NetworkException ex) {
+			// The disk is not reachable, it will not get a copy
+		}
+	}
+
+	/**
+	 * Removes an unused VA from the central repository and from the local disks
+	 *
+	 * @return false if there were no VAs to evict
+	 */
+	private boolean evictOne() {
+		Entry victim = null;
+		for (Entry e : entries.values()) {
+			if (!e.inUse && (victim == null || isBetterVictim(e, victim))) {
+				victim = e;
+			}
+		}
+		if (victim == null) {
+			return false;
+		}
+		entries.remove(victim.va.id);
+		storage.deregisterObject(victim.va.id);
+		final Iterator<Repository> it = victim.staged.keySet().iterator();
+		while (it.hasNext()) {
+			final Repository disk = it.next();
+			// Copies in transfer are removed when they arrive
+			if (victim.staged.get(disk)) {
+				disk.deregisterObject(victim.va.id);
+			}
+			it.remove();
+		}
+		evictions.inc();
+		return true;
+	}
+
+	private boolean isBetterVictim(final Entry e, final Entry current) {
+		if (policy == Policy.LFU) {
+			// Hits per byte, compared without division
+			final double eScore = (double) e.hits * current.va.size;
+			final double currentScore = (double) current.hits * e.va.size;
+			if (eScore != currentScore) {
+				return eScore < currentScore;
+			}
+		}
+		return e.lastUse < current.lastUse;
+	}
+}
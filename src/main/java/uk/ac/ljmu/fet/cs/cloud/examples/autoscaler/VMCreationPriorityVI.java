@@ -92,7 +92,7 @@ public class VMCreationPriorityVI extends VirtualInfrastructure {
 				for (VirtualMachine vm : vmset) {
 					double currVMUtil = getHourlyUtilisationPercForVM(vm);
 					if (currVMUtil < ThresholdBasedVI.minUtilisationLevelBeforeDestruction
-							&& vm.underProcessing.isEmpty() && vm.toBeAdded.isEmpty()) {
+							&& isIdle(vm)) {
 						//
 						underUtil.add(vm);
 					}
@@ -105,7 +105,7 @@ public class VMCreationPriorityVI extends VirtualInfrastructure {
 				} else if (vmset.size() == 1) {
 					// No we don't need more VMs, in fact we only have one VM at the moment
 					final VirtualMachine onlyMachine = vmset.get(0);
-					if (onlyMachine.underProcessing.isEmpty() && onlyMachine.toBeAdded.isEmpty()) {
+					if (isIdle(onlyMachine)) {
 						// Our single VM has no ongoing computation
 						// We will try to not destroy the last VM from any kind
 						Integer i = unnecessaryHits.get(onlyMachine);
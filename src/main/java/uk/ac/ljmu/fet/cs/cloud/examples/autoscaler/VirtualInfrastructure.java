@@ -22,12 +22,17 @@
  */
 package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.Histogram;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.MetricsRegistry;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VMManager.VMManagementException;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine.State;
@@ -47,6 +52,18 @@ import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
  *         Moores University, (c) 2019"
  */
 public abstract class VirtualInfrastructure extends Timed implements VirtualMachine.StateChange {
+	/**
+	 * Allows parties to be notified when a VM becomes able to accept a new job
+	 */
+	public static interface CapacityListener {
+		/**
+		 * A VM of the given kind is running and has no jobs at the moment
+		 * 
+		 * @param kind the executable the VM is for
+		 */
+		void capacityAvailable(String kind);
+	}
+
 	/**
 	 * The virtual infrastructure for each executable. The keys of the map are the
 	 * executable types for which we have a virtual infrastructure. The values of
@@ -61,6 +78,33 @@ public abstract class VirtualInfrastructure extends Timed implements VirtualMach
 	 */
 	public final HashMap<String, VirtualMachine> underPrepVMPerKind = new HashMap<String, VirtualMachine>();
 
+	/**
+	 * The VMs of each kind that have no jobs assigned to them at the moment
+	 * (regardless of their state). Maintained through {@link #jobStarted} and
+	 * {@link #jobFinished}.
+	 */
+	private final HashMap<String, LinkedHashSet<VirtualMachine>> idleVMsPerKind = new HashMap<String, LinkedHashSet<VirtualMachine>>();
+	/**
+	 * The VMs of each kind that are running and have no jobs assigned to them, so
+	 * they can accept a new job right away.
+	 */
+	private final HashMap<String, LinkedHashSet<VirtualMachine>> readyVMsPerKind = new HashMap<String, LinkedHashSet<VirtualMachine>>();
+	/**
+	 * Those who are interested in VMs becoming ready
+	 */
+	private final ArrayList<CapacityListener> capacityListeners = new ArrayList<CapacityListener>();
+	/**
+	 * For each of our VMs: when it was requested, how many jobs it received and
+	 * whether it was started from a PM's local copy of its VA (1) or through the
+	 * cloud (0)
+	 */
+	private final IdentityHashMap<VirtualMachine, long[]> vmRecords = new IdentityHashMap<VirtualMachine, long[]>();
+	private final MetricsRegistry.Counter requestedVMs = MetricsRegistry.global.counter("vms.requested");
+	private final MetricsRegistry.Counter destroyedVMs = MetricsRegistry.global.counter("vms.destroyed");
+	private final Histogram bootTimes = MetricsRegistry.global.histogram("vms.bootTimeMs");
+	private final Histogram lifetimes = MetricsRegistry.global.histogram("vms.lifetimeMs");
+	private final Histogram jobsPerVM = MetricsRegistry.global.histogram("vms.jobsPerVM");
+
 	/**
 	 * The cloud on which we will execute our virtual machines
 	 */
@@ -90,12 +134,13 @@ public abstract class VirtualInfrastructure extends Timed implements VirtualMach
 	 * All VMs that we deploy to the cloud are monitored and their CPU utilisation
 	 * is used for scaling the virtual infrastructure of a particular application
 	 */
-	private final HashMap<VirtualMachine, HourlyVMMonitor> vmmonitors = new HashMap<VirtualMachine, HourlyVMMonitor>();
+	private final UtilisationSampler vmmonitors = new UtilisationSampler();
 
 	/**
-	 * Allows us to remember which VM kinds fell out of use
+	 * Keeps the VAs of our VM kinds in the cloud's storage, and decides which ones
+	 * to remove when the storage runs out of space
 	 */
-	private final ArrayDeque<String> obsoleteVAs = new ArrayDeque<String>();
+	private final VACache vaCache;
 
 	/**
 	 * Initialises the auto scaling mechanism
@@ -109,6 +154,14 @@ public abstract class VirtualInfrastructure extends Timed implements VirtualMach
 		pmCores = (int) rcForMachine.getRequiredCPUs();
 		pmProcessing = rcForMachine.getRequiredProcessingPower();
 		pmMem = rcForMachine.getRequiredMemory();
+		vaCache = new VACache(cloud, storage, VACache.Policy.fromSystemProperties(),
+				Integer.getInteger(VACache.prestageProperty, 0));
+		MetricsRegistry.global.gauge("vms.current", new MetricsRegistry.Gauge() {
+			@Override
+			public double value() {
+				return vmRecords.size();
+			}
+		});
 	}
 
 	/**
@@ -120,6 +173,8 @@ public abstract class VirtualInfrastructure extends Timed implements VirtualMach
 	public void regNewVMKind(final String kind) {
 		if (vmSetPerKind.get(kind) == null) {
 			vmSetPerKind.put(kind, new ArrayList<VirtualMachine>());
+			idleVMsPerKind.put(kind, new LinkedHashSet<VirtualMachine>());
+			readyVMsPerKind.put(kind, new LinkedHashSet<VirtualMachine>());
 		}
 	}
 
@@ -140,48 +195,38 @@ public abstract class VirtualInfrastructure extends Timed implements VirtualMach
 			return;
 		}
 		// VMI handling
-		VirtualAppliance va = (VirtualAppliance) storage.lookup(vmKind);
-		if (va == null) {
-			// A random sized VMI with a short boot procedure. The approximate size of the
-			// VMI will be 1GB.
-			va = new VirtualAppliance(vmKind, 15, 0, true, 1024 * 1024 * 1024);
-			boolean regFail;
-			do {
-				regFail = !storage.registerObject(va);
-				if (regFail) {
-					// Storage ran out of space, remove the VA that became obsolete the longest time
-					// in the past
-					if (obsoleteVAs.isEmpty()) {
-						throw new RuntimeException(
-								"Configured with a repository not big enough to accomodate a the following VA: " + va);
-					}
-					String vaRemove = obsoleteVAs.pollFirst();
-					storage.deregisterObject(vaRemove);
-				}
-			} while (regFail);
-		}
+		final VirtualAppliance va = vaCache.acquire(vmKind);
 
 		// VM size is a bit dependent on the VA used
 		// This guarantees a deterministic VM resource set for each kind of application
 		// The core count of a VM will be between 1-4.
 		final int vmScaler = vmKind.length() % 4 + 1;
+		final ResourceConstraints rc = new ConstantConstraints(vmScaler, pmProcessing, vmScaler * pmMem / pmCores);
 		try {
-			VirtualMachine vm = cloud.requestVM(va,
-					new ConstantConstraints(vmScaler, pmProcessing, vmScaler * pmMem / pmCores), storage, 1)[0];
-			HourlyVMMonitor vmMonitor = new HourlyVMMonitor(vm);
-			vmMonitor.startMon();
-			vmmonitors.put(vm, vmMonitor);
-			ArrayList<VirtualMachine> vmset = vmSetPerKind.get(vmKind);
-			if (vmset.isEmpty()) {
-				// VA became used again, no longer obsolete
-				obsoleteVAs.remove(vmKind);
+			VirtualMachine vm = null;
+			final PhysicalMachine stagedHost = vaCache.findStagedHost(vmKind, rc);
+			if (stagedHost != null) {
+				// The VA is pre-staged on a PM with enough space for the VM, no need to
+				// transfer it from the central storage
+				try {
+					vm = stagedHost.requestVM(va, rc, stagedHost.localDisk, 1)[0];
+				} catch (VMManagementException e) {
+					// The PM's capacities were taken meanwhile, the cloud will place the VM
+				}
 			}
-			vmset.add(vm);
+			final boolean local = vm != null;
+			if (!local) {
+				vm = cloud.requestVM(va, rc, storage, 1)[0];
+			}
+			vmmonitors.startMon(vm);
+			vmRecords.put(vm, new long[] { Timed.getFireCount(), 0, local ? 1 : 0 });
+			requestedVMs.inc();
+			vmSetPerKind.get(vmKind).add(vm);
+			idleVMsPerKind.get(vmKind).add(vm);
 			underPrepVMPerKind.put(vmKind, vm);
 			vm.subscribeStateChange(this);
 		} catch (Exception vmm) {
-			vmm.printStackTrace();
-			System.exit(1);
+			throw new RuntimeException("Could not request a VM for " + vmKind, vmm);
 		}
 	}
 
@@ -192,15 +237,23 @@ public abstract class VirtualInfrastructure extends Timed implements VirtualMach
 	 * @param vm The VM to be destroyed.
 	 */
 	protected void destroyVM(final VirtualMachine vm) {
-		vmmonitors.remove(vm).finishMon();
+		vmmonitors.finishMon(vm);
+		final long[] record = vmRecords.remove(vm);
+		lifetimes.record(Timed.getFireCount() - record[0]);
+		jobsPerVM.record(record[1]);
+		destroyedVMs.inc();
 		try {
 			final String vmKind = vm.getVa().id;
 			ArrayList<VirtualMachine> vms = vmSetPerKind.get(vmKind);
 			vms.remove(vm);
+			idleVMsPerKind.get(vmKind).remove(vm);
+			readyVMsPerKind.get(vmKind).remove(vm);
 			underPrepVMPerKind.remove(vmKind);
 			if (VirtualMachine.State.DESTROYED.equals(vm.getState())) {
 				// The VM was not even running when the decision about its destruction was made
-				cloud.terminateVM(vm, true);
+				if (record[2] == 0) {
+					cloud.terminateVM(vm, true);
+				}
 			} else {
 				// The VM was initiated on the cloud, but we no longer need it
 				vm.destroy(true);
@@ -208,17 +261,117 @@ public abstract class VirtualInfrastructure extends Timed implements VirtualMach
 			if (vms.isEmpty()) {
 				// Last use of the VA, make it obsolete now => enable it to be removed from the
 				// central storage
-				obsoleteVAs.add(vmKind);
+				vaCache.release(vmKind);
 			}
 		} catch (VMManagementException e) {
 			// Should not really happen
-			e.printStackTrace();
-			System.exit(1);
+			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Tells which VMs of a particular kind have no jobs at the moment.
+	 * 
+	 * @param kind the executable the VMs are for
+	 * @return the set of VMs not used at the moment (in the order they became
+	 *         unused). The set is maintained by the virtual infrastructure, and
+	 *         it must not be modified. Copy it before iterating if you plan to
+	 *         destroy VMs meanwhile.
+	 */
+	public Set<VirtualMachine> getIdleVMs(final String kind) {
+		return idleVMsPerKind.get(kind);
+	}
+
+	/**
+	 * Determines if a VM has any jobs at the moment
+	 * 
+	 * @param vm the VM in question
+	 * @return true if the VM has no jobs assigned
+	 */
+	public boolean isIdle(final VirtualMachine vm) {
+		final LinkedHashSet<VirtualMachine> idle = idleVMsPerKind.get(vm.getVa().id);
+		return idle != null && idle.contains(vm);
+	}
+
+	/**
+	 * Offers a running VM that has no jobs at the moment.
+	 * 
+	 * @param kind the executable the VM should be for
+	 * @return the VM that became ready the longest time ago, or null if there
+	 *         are no ready VMs of the kind
+	 */
+	public VirtualMachine getReadyVM(final String kind) {
+		final LinkedHashSet<VirtualMachine> ready = readyVMsPerKind.get(kind);
+		if (ready == null || ready.isEmpty()) {
+			return null;
+		}
+		return ready.iterator().next();
+	}
+
+	/**
+	 * Job launchers must call this when they have assigned a job to a VM (for
+	 * every job).
+	 * 
+	 * @param vm the VM that received the job
+	 */
+	public void jobStarted(final VirtualMachine vm) {
+		vmRecords.get(vm)[1]++;
+		final String kind = vm.getVa().id;
+		idleVMsPerKind.get(kind).remove(vm);
+		readyVMsPerKind.get(kind).remove(vm);
+	}
+
+	/**
+	 * Job launchers must call this when a job of a VM is complete and the VM has
+	 * no further jobs.
+	 * 
+	 * @param vm the VM that became unused
+	 */
+	public void jobFinished(final VirtualMachine vm) {
+		final String kind = vm.getVa().id;
+		final State st = vm.getState();
+		// The VM might have been destroyed already
+		if (!VirtualMachine.State.DESTROYED.equals(st) && !VirtualMachine.State.SHUTDOWN.equals(st)) {
+			idleVMsPerKind.get(kind).add(vm);
+			if (VirtualMachine.State.RUNNING.equals(st)) {
+				markReady(kind, vm);
+			}
+		}
+	}
+
+	/**
+	 * Registers a VM as ready to accept jobs and lets the capacity listeners know
+	 * about it.
+	 */
+	private void markReady(final String kind, final VirtualMachine vm) {
+		readyVMsPerKind.get(kind).add(vm);
+		capacityFreed(kind);
+	}
+
+	/**
+	 * Job launchers that place multiple jobs on a VM should call this when a job
+	 * completes but its VM still has other jobs. The capacity listeners are
+	 * notified that the kind could accept new jobs.
+	 * 
+	 * @param kind the executable of the VM that has free capacity
+	 */
+	public void capacityFreed(final String kind) {
+		for (int i = 0; i < capacityListeners.size(); i++) {
+			capacityListeners.get(i).capacityAvailable(kind);
+		}
+	}
+
+	/**
+	 * Allows someone to get notified when a VM becomes ready to accept jobs
+	 * 
+	 * @param l the listener to be notified
+	 */
+	public void addCapacityListener(final CapacityListener l) {
+		capacityListeners.add(l);
+	}
+
 	protected double getHourlyUtilisationPercForVM(VirtualMachine vm) {
-		return vmmonitors.get(vm).getHourlyUtilisationPerc();
+		return vmmonitors.getHourlyUtilisationPerc(vm);
 	}
 
 	/**
@@ -252,7 +405,15 @@ public abstract class VirtualInfrastructure extends Timed implements VirtualMach
 	@Override
 	public void stateChanged(final VirtualMachine vm, final State oldState, final State newState) {
 		if (VirtualMachine.State.RUNNING.equals(newState)) {
-			underPrepVMPerKind.remove(vm.getVa().id);
+			final long[] record = vmRecords.get(vm);
+			if (record != null) {
+				bootTimes.record(Timed.getFireCount() - record[0]);
+			}
+			final String kind = vm.getVa().id;
+			underPrepVMPerKind.remove(kind);
+			if (idleVMsPerKind.get(kind).contains(vm)) {
+				markReady(kind, vm);
+			}
 			vm.unsubscribeStateChange(this);
 		} else if (VirtualMachine.State.NONSERVABLE.equals(newState)) {
 			underPrepVMPerKind.remove(vm.getVa().id);
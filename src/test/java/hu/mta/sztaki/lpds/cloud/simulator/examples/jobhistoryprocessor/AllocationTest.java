@@ -0,0 +1,176 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.DCCreation;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.MetricsRegistry;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.GenericTraceProducer;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ConstantConstraints;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.AlwaysOnMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+/**
+ * Checks that the pools and caches of the dispatch path stop allocating once
+ * they have warmed up.
+ */
+public class AllocationTest {
+	/**
+	 * The amount of bytes we tolerate for a measured batch (the measurement
+	 * itself might allocate a little on some JVMs)
+	 */
+	private static final long tolerance = 1024;
+	private static final int batch = 100000;
+	/**
+	 * The amount of bytes a job may allocate on average in steady state. The
+	 * simulator still allocates for the VMs, transfers and events of every job,
+	 * but the dispatcher's own garbage should be a small fraction of this.
+	 */
+	private static final long perJobBudget = 64 * 1024;
+
+	private com.sun.management.ThreadMXBean mxBean;
+
+	@Before
+	public void setUp() {
+		Timed.resetTimed();
+		MetricsRegistry.global.clear();
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		mxBean = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(mxBean.isThreadAllocatedMemorySupported());
+		mxBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@After
+	public void tearDown() {
+		Timed.resetTimed();
+		MetricsRegistry.global.clear();
+	}
+
+	private long allocatedBytes() {
+		return mxBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Test
+	public void constraintsCacheLookupsDoNotAllocate() {
+		final ConstraintsCache cache = new ConstraintsCache(8);
+		final ConstantConstraints[] interned = new ConstantConstraints[16];
+		for (int i = 0; i < interned.length; i++) {
+			interned[i] = cache.get(i + 1, 0.001, false, 512000000);
+		}
+		// Warming up the lookup code, then measuring
+		long checksum = 0;
+		for (int round = 0; round < 2; round++) {
+			final long before = allocatedBytes();
+			for (int i = 0; i < batch; i++) {
+				final int idx = i & 15;
+				final ConstantConstraints rc = cache.get(idx + 1, 0.001, false, 512000000);
+				checksum += rc == interned[idx] ? 1 : 0;
+			}
+			final long allocated = allocatedBytes() - before;
+			if (round == 1) {
+				assertTrue("Interned lookups allocated " + allocated + " bytes", allocated < tolerance);
+			}
+		}
+		assertEquals(2L * batch, checksum);
+	}
+
+	/**
+	 * Jobs submitted one after the other so at most a few of them run at the
+	 * same time
+	 */
+	private static List<Job> steadyTrace(final int count) {
+		final ArrayList<Job> jobs = new ArrayList<Job>(count);
+		for (int i = 0; i < count; i++) {
+			jobs.add(new DCFJob("" + i, 100 + i * 200, 0, 100, 1 + i % 4, -1, -1, "user", "group", "exec", null, 0));
+		}
+		return jobs;
+	}
+
+	@Test
+	public void dispatchPoolsStopGrowing() throws Exception {
+		final IaaSService cloud = DCCreation.createDataCentre(FirstFitScheduler.class, AlwaysOnMachines.class, 8, 8);
+		Timed.simulateUntilLastEvent();
+		final List<Job> trace = steadyTrace(200);
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(new GenericTraceProducer() {
+			@Override
+			public List<Job> getAllJobs() {
+				return new ArrayList<Job>(trace);
+			}
+
+			@Override
+			public List<Job> getJobs(final int num) {
+				return Collections.emptyList();
+			}
+		}, Collections.singletonList(cloud));
+
+		// The first half of the trace warms up the pools
+		Timed.simulateUntil(Timed.getFireCount() + 100 * 200 * 1000);
+		final int runners = dispatcher.createdRunners;
+		final int arrays = dispatcher.createdKeeperArrays;
+		assertTrue("No jobs were dispatched in the warm up period", runners > 0 && arrays > 0);
+		int pending = 0;
+		for (Job j : trace) {
+			pending += j.isRan() ? 0 : 1;
+		}
+		assertTrue("The warm up period processed the whole trace", pending > 0);
+		// The second half is measured
+		final long steadyStart = allocatedBytes();
+		Timed.simulateUntilLastEvent();
+		final long perJob = (allocatedBytes() - steadyStart) / pending;
+		assertTrue("A steady state job allocated " + perJob + " bytes", perJob < perJobBudget);
+		assertEquals("All jobs should complete", 0, dispatcher.getIgnorecounter());
+		assertEquals("New runners were created in steady state", runners, dispatcher.createdRunners);
+		assertEquals("New keeper arrays were created in steady state", arrays, dispatcher.createdKeeperArrays);
+
+		// The keeper array pool serves the same arrays again without allocation
+		final VMKeeper[] first = dispatcher.borrowKeeperArray(3);
+		dispatcher.returnKeeperArray(first);
+		assertSame(first, dispatcher.borrowKeeperArray(3));
+		dispatcher.returnKeeperArray(first);
+		for (int round = 0; round < 2; round++) {
+			final long before = allocatedBytes();
+			for (int i = 0; i < batch; i++) {
+				dispatcher.returnKeeperArray(dispatcher.borrowKeeperArray(1 + (i & 3)));
+			}
+			final long allocated = allocatedBytes() - before;
+			if (round == 1) {
+				assertTrue("The keeper array pool allocated " + allocated + " bytes", allocated < tolerance);
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.DCCreation;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ConstantConstraints;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.AlwaysOnMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
+import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
+
+/**
+ * Checks the choices of the cloud selection policies on three clouds of four 8
+ * core PMs, also when some of the clouds are excluded.
+ */
+public class CloudSelectionPolicyTest {
+	private static final boolean[] none = new boolean[3];
+
+	private CloudCapacitySummary[] clouds;
+
+	@Before
+	public void setUp() throws Exception {
+		Timed.resetTimed();
+		clouds = new CloudCapacitySummary[3];
+		for (int i = 0; i < clouds.length; i++) {
+			final IaaSService cloud = DCCreation.createDataCentre(FirstFitScheduler.class, AlwaysOnMachines.class, 4,
+					8);
+			clouds[i] = new CloudCapacitySummary(cloud, cloud.repositories.get(0));
+		}
+		// Lets the PMs switch on
+		Timed.simulateUntilLastEvent();
+	}
+
+	@After
+	public void tearDown() {
+		Timed.resetTimed();
+	}
+
+	private static boolean[] excluding(final int... indexes) {
+		final boolean[] excluded = new boolean[3];
+		for (int i : indexes) {
+			excluded[i] = true;
+		}
+		return excluded;
+	}
+
+	/**
+	 * Asks for more whole PM sized VMs than the cloud can host, so some of them
+	 * queue up
+	 */
+	private static void overload(final CloudCapacitySummary summary) throws Exception {
+		final Repository repo = summary.repo;
+		final VirtualAppliance va = new VirtualAppliance("queued", 1, 0);
+		repo.registerObject(va);
+		summary.cloud.requestVM(va, new ConstantConstraints(8, 0.001, 1024 * 1024 * 1024), repo, 6);
+		assertTrue(summary.getQueueLength() > 0);
+	}
+
+	@Test
+	public void roundRobinSkipsTheExcludedClouds() {
+		final CloudSelectionPolicy p = new CloudSelectionPolicy.RoundRobin();
+		assertEquals(0, p.select(clouds, none, 1, 1));
+		assertEquals(2, p.select(clouds, excluding(1), 1, 1));
+		// The rotation continues after the last choice
+		assertEquals(0, p.select(clouds, none, 1, 1));
+		assertEquals(1, p.select(clouds, none, 1, 1));
+		assertEquals(0, p.select(clouds, excluding(1, 2), 1, 1));
+		assertEquals(1, p.select(clouds, none, 1, 1));
+	}
+
+	@Test
+	public void leastQueuePrefersShortQueuesThenFreeCores() throws Exception {
+		overload(clouds[0]);
+		clouds[1].vmsRequested(1, 8);
+		final CloudSelectionPolicy p = new CloudSelectionPolicy.LeastQueue();
+		assertEquals(2, p.select(clouds, none, 1, 1));
+		assertEquals(1, p.select(clouds, excluding(2), 1, 1));
+		assertEquals(0, p.select(clouds, excluding(1, 2), 1, 1));
+	}
+
+	@Test
+	public void mostFreeCoresPrefersTheEmptiestCloud() {
+		clouds[0].vmsRequested(1, 4);
+		clouds[1].vmsRequested(2, 4);
+		final CloudCapacitySummary[] c = clouds;
+		final CloudSelectionPolicy p = new CloudSelectionPolicy.MostFreeCores();
+		assertEquals(2, p.select(c, none, 1, 1));
+		assertEquals(0, p.select(c, excluding(2), 1, 1));
+		assertEquals(1, p.select(c, excluding(0, 2), 1, 1));
+		// Terminations give the cores back
+		clouds[1].vmTerminated(4);
+		clouds[1].vmTerminated(4);
+		assertEquals(1, p.select(c, excluding(2), 1, 1));
+	}
+
+	@Test
+	public void energyAwarePacksTheRunningPMs() {
+		// Spare running cores: 28, 8 and 32
+		clouds[0].vmsRequested(1, 4);
+		clouds[1].vmsRequested(3, 8);
+		final CloudCapacitySummary[] c = clouds;
+		final CloudSelectionPolicy p = new CloudSelectionPolicy.EnergyAware();
+		assertEquals(1, p.select(c, none, 2, 4));
+		assertEquals(0, p.select(c, none, 4, 4));
+		assertEquals(2, p.select(c, excluding(0), 4, 4));
+		// Nowhere fits, so the cloud with the most free cores is chosen
+		assertEquals(2, p.select(c, none, 5, 8));
+		assertEquals(0, p.select(c, excluding(2), 5, 8));
+	}
+
+	@Test
+	public void powerOfTwoChoicesPrefersTheLessLoadedSample() throws Exception {
+		overload(clouds[0]);
+		clouds[2].vmsRequested(1, 8);
+		final CloudSelectionPolicy p = new CloudSelectionPolicy.PowerOfTwoChoices();
+		for (int i = 0; i < 100; i++) {
+			// With two candidates both of them are sampled
+			assertEquals(1, p.select(clouds, excluding(2), 1, 1));
+			assertEquals(2, p.select(clouds, excluding(1), 1, 1));
+			// Equal queues, lower utilisation
+			assertEquals(1, p.select(clouds, excluding(0), 1, 1));
+			assertEquals(2, p.select(clouds, excluding(0, 1), 1, 1));
+		}
+	}
+
+	@Test
+	public void noPolicyChoosesAnExcludedCloud() {
+		final CloudSelectionPolicy[] policies = new CloudSelectionPolicy[] { new CloudSelectionPolicy.RoundRobin(),
+				new CloudSelectionPolicy.LeastQueue(), new CloudSelectionPolicy.MostFreeCores(),
+				new CloudSelectionPolicy.EnergyAware(), new CloudSelectionPolicy.PowerOfTwoChoices() };
+		final Random rnd = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			final boolean[] excluded = new boolean[3];
+			final int allowed = rnd.nextInt(3);
+			for (int j = 0; j < 3; j++) {
+				excluded[j] = j != allowed && rnd.nextBoolean();
+			}
+			for (CloudSelectionPolicy p : policies) {
+				assertFalse(excluded[p.select(clouds, excluded, 1 + rnd.nextInt(8), 1 + rnd.nextInt(8))]);
+			}
+		}
+	}
+}
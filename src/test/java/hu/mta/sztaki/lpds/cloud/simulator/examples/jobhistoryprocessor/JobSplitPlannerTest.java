@@ -0,0 +1,186 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.energy.powermodelling.PowerState;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.DCCreation;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.AlwaysOnMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
+import hu.mta.sztaki.lpds.cloud.simulator.util.PowerTransitionGenerator;
+
+/**
+ * Checks the VM requests planned for uniform and heterogeneous federations.
+ */
+public class JobSplitPlannerTest {
+	@Before
+	public void setUp() {
+		Timed.resetTimed();
+	}
+
+	@After
+	public void tearDown() {
+		Timed.resetTimed();
+	}
+
+	private static CloudCapacitySummary[] federation(final int[] nodes, final int[] cores) throws Exception {
+		final CloudCapacitySummary[] clouds = new CloudCapacitySummary[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			final IaaSService cloud = DCCreation.createDataCentre(FirstFitScheduler.class, AlwaysOnMachines.class,
+					nodes[i], cores[i]);
+			clouds[i] = new CloudCapacitySummary(cloud, cloud.repositories.get(0));
+		}
+		return clouds;
+	}
+
+	/**
+	 * Creates a cloud with PMs of different sizes
+	 * 
+	 * @param cores the core count of each PM
+	 */
+	private static CloudCapacitySummary mixedCloud(final int... cores) throws Exception {
+		final EnumMap<PowerTransitionGenerator.PowerStateKind, Map<String, PowerState>> transitions = PowerTransitionGenerator
+				.generateTransitions(20, 296, 493, 50, 108);
+		final Map<String, PowerState> stTransitions = transitions.get(PowerTransitionGenerator.PowerStateKind.storage);
+		final Map<String, PowerState> nwTransitions = transitions.get(PowerTransitionGenerator.PowerStateKind.network);
+		final HashMap<String, Integer> latencies = new HashMap<String, Integer>();
+		latencies.put("Storage", 5);
+		for (int i = 0; i < cores.length; i++) {
+			latencies.put("Node" + i, 3);
+		}
+		final IaaSService cloud = new IaaSService(FirstFitScheduler.class, AlwaysOnMachines.class);
+		final Repository storage = new Repository(5000000000000l, "Storage", 1250000, 1250000, 250000, latencies,
+				stTransitions, nwTransitions);
+		cloud.registerRepository(storage);
+		for (int i = 0; i < cores.length; i++) {
+			cloud.registerHost(new PhysicalMachine(cores[i], 0.001, 256000000000l,
+					new Repository(5000000000000l, "Node" + i, 250000, 250000, 50000, latencies, stTransitions,
+							nwTransitions),
+					89000, 29000, transitions.get(PowerTransitionGenerator.PowerStateKind.host)));
+		}
+		return new CloudCapacitySummary(cloud, storage);
+	}
+
+	private static void assertSegment(final JobSplitPlanner planner, final CloudCapacitySummary[] clouds,
+			final int segment, final int cloud, final int vms, final double cores) {
+		assertEquals(clouds[cloud], planner.getCloud(segment));
+		assertEquals(vms, planner.getVMCount(segment));
+		assertEquals(cores, planner.getCoresPerVM(segment), 1e-9);
+	}
+
+	@Test
+	public void uniformCloudsShareProcessorsAmongAllVMs() throws Exception {
+		final CloudCapacitySummary[] clouds = federation(new int[] { 10, 10 }, new int[] { 64, 64 });
+		final JobSplitPlanner planner = new JobSplitPlanner(clouds);
+		assertTrue(planner.plan(1000, new CloudSelectionPolicy.RoundRobin()));
+		assertEquals(2, planner.getSegmentCount());
+		assertEquals(16, planner.getTotalVMs());
+		assertSegment(planner, clouds, 0, 0, 8, 62.5);
+		assertSegment(planner, clouds, 1, 1, 8, 62.5);
+	}
+
+	@Test
+	public void smallJobsGetASingleVM() throws Exception {
+		final CloudCapacitySummary[] clouds = federation(new int[] { 10, 10 }, new int[] { 64, 64 });
+		final JobSplitPlanner planner = new JobSplitPlanner(clouds);
+		assertTrue(planner.plan(10, new CloudSelectionPolicy.RoundRobin()));
+		assertEquals(1, planner.getSegmentCount());
+		assertSegment(planner, clouds, 0, 0, 1, 10);
+	}
+
+	@Test
+	public void oversizedJobsAreRejected() throws Exception {
+		final CloudCapacitySummary[] clouds = federation(new int[] { 10, 10 }, new int[] { 64, 64 });
+		final JobSplitPlanner planner = new JobSplitPlanner(clouds);
+		assertFalse(planner.plan(1281, new CloudSelectionPolicy.RoundRobin()));
+		assertTrue(planner.plan(1280, new CloudSelectionPolicy.RoundRobin()));
+		assertEquals(20, planner.getTotalVMs());
+	}
+
+	@Test
+	public void heterogeneousCloudsGetVMsOfTheirOwnSize() throws Exception {
+		final CloudCapacitySummary[] clouds = federation(new int[] { 4, 2 }, new int[] { 8, 32 });
+		final JobSplitPlanner planner = new JobSplitPlanner(clouds);
+		assertTrue(planner.plan(40, new CloudSelectionPolicy.RoundRobin()));
+		assertEquals(2, planner.getSegmentCount());
+		assertEquals(5, planner.getTotalVMs());
+		assertSegment(planner, clouds, 0, 0, 4, 8);
+		assertSegment(planner, clouds, 1, 1, 1, 8);
+		// The bigger cloud alone would not be enough
+		assertFalse(planner.plan(100, new CloudSelectionPolicy.RoundRobin()));
+	}
+
+	@Test
+	public void mixedCloudsFillTheirSmallerPMsToo() throws Exception {
+		final CloudCapacitySummary[] clouds = new CloudCapacitySummary[] { mixedCloud(64, 32, 32, 32),
+				federation(new int[] { 2 }, new int[] { 16 })[0] };
+		final JobSplitPlanner planner = new JobSplitPlanner(clouds);
+		assertTrue(planner.plan(128, new CloudSelectionPolicy.RoundRobin()));
+		assertEquals(2, planner.getSegmentCount());
+		assertEquals(3, planner.getTotalVMs());
+		assertSegment(planner, clouds, 0, 0, 1, 64);
+		assertSegment(planner, clouds, 1, 0, 2, 32);
+		// The rest of a job goes to a smaller PM
+		assertTrue(planner.plan(80, new CloudSelectionPolicy.RoundRobin()));
+		assertEquals(2, planner.getSegmentCount());
+		assertSegment(planner, clouds, 0, 0, 1, 64);
+		assertSegment(planner, clouds, 1, 0, 1, 16);
+		// The next cloud is only used once all PMs of the mixed one are
+		assertTrue(planner.plan(180, new CloudSelectionPolicy.RoundRobin()));
+		assertEquals(3, planner.getSegmentCount());
+		assertEquals(6, planner.getTotalVMs());
+		assertSegment(planner, clouds, 0, 0, 1, 64);
+		assertSegment(planner, clouds, 1, 0, 3, 32);
+		assertSegment(planner, clouds, 2, 1, 2, 10);
+		assertFalse(planner.plan(193, new CloudSelectionPolicy.RoundRobin()));
+	}
+
+	@Test
+	public void roundRobinContinuesAfterTheCloudsOfTheLastJob() throws Exception {
+		final CloudCapacitySummary[] clouds = federation(new int[] { 2, 2, 2 }, new int[] { 4, 4, 4 });
+		final JobSplitPlanner planner = new JobSplitPlanner(clouds);
+		final CloudSelectionPolicy policy = new CloudSelectionPolicy.RoundRobin();
+		assertTrue(planner.plan(12, policy));
+		assertEquals(2, planner.getSegmentCount());
+		assertSegment(planner, clouds, 0, 0, 2, 4);
+		assertSegment(planner, clouds, 1, 1, 1, 4);
+		assertTrue(planner.plan(4, policy));
+		assertSegment(planner, clouds, 0, 2, 1, 4);
+		assertTrue(planner.plan(12, policy));
+		assertSegment(planner, clouds, 0, 0, 2, 4);
+		assertSegment(planner, clouds, 1, 1, 1, 4);
+	}
+}
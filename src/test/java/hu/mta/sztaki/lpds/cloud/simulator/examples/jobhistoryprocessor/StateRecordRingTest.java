@@ -0,0 +1,111 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Checks the hand over of state records between the simulation and the data
+ * flusher thread.
+ */
+public class StateRecordRingTest {
+	private static OverallSystemState record(final long timeStamp) {
+		final OverallSystemState st = new OverallSystemState();
+		st.timeStamp = timeStamp;
+		st.runningVMs = (int) timeStamp;
+		return st;
+	}
+
+	@Test(timeout = 10000)
+	public void recordsArriveInOrder() throws Exception {
+		final StateRecordRing ring = new StateRecordRing(2);
+		final Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 100; i++) {
+					ring.offer(record(i));
+				}
+				ring.close();
+			}
+		};
+		producer.start();
+		long expected = 0;
+		long until;
+		while ((until = ring.awaitRecords()) != ring.first()) {
+			for (long seq = ring.first(); seq < until; seq++) {
+				final int i = ring.index(seq);
+				assertEquals(expected, ring.timeStamp[i]);
+				assertEquals(expected++, ring.runningVMs[i]);
+			}
+			ring.release(until);
+		}
+		producer.join();
+		assertEquals(100, expected);
+	}
+
+	@Test(timeout = 10000)
+	public void failureWakesTheWaitingProducer() throws Exception {
+		final StateRecordRing ring = new StateRecordRing(2);
+		final Throwable[] thrown = new Throwable[1];
+		final Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < 100; i++) {
+						ring.offer(record(i));
+					}
+				} catch (Throwable t) {
+					thrown[0] = t;
+				}
+			}
+		};
+		producer.start();
+		// The ring holds two records, the third offer has to wait
+		while (producer.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+		final IOException cause = new IOException("Disk full");
+		ring.fail(cause);
+		producer.join();
+		assertTrue(thrown[0] instanceof IllegalStateException);
+		assertSame(cause, thrown[0].getCause());
+	}
+
+	@Test
+	public void offersAfterAFailureAreRejected() {
+		final StateRecordRing ring = new StateRecordRing(16);
+		ring.offer(record(0));
+		ring.fail(new IOException("Disk full"));
+		try {
+			ring.offer(record(1));
+			fail("The record was accepted although nobody would consume it");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+}
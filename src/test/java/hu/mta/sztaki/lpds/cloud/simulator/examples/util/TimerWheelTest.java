@@ -0,0 +1,230 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+
+/**
+ * Checks that the timers of the wheel fire exactly at their deadlines, no
+ * matter which level of the wheel they were kept at.
+ */
+public class TimerWheelTest {
+	/**
+	 * The number of ticks covered by the whole wheel
+	 */
+	private static final long range = 1L << (TimerWheel.slotBits * TimerWheel.levels);
+
+	/**
+	 * Remembers when it has expired
+	 */
+	private static class Recorder extends TimerWheel.Timer {
+		final List<Long> fired = new ArrayList<Long>();
+
+		@Override
+		protected void expire(final long fires) {
+			fired.add(fires);
+		}
+	}
+
+	private TimerWheel wheel;
+
+	@Before
+	public void setUp() {
+		Timed.resetTimed();
+		wheel = new TimerWheel();
+	}
+
+	@After
+	public void tearDown() {
+		Timed.resetTimed();
+	}
+
+	private static long levelSpan(final int level) {
+		return 1L << (TimerWheel.slotBits * level);
+	}
+
+	/**
+	 * Schedules the recorders with the given delays once the wheel reaches a
+	 * particular time
+	 */
+	private void scheduleAt(final long when, final Recorder[] recorders, final long[] delays) {
+		final TimerWheel.Timer starter = new TimerWheel.Timer() {
+			@Override
+			protected void expire(final long fires) {
+				for (int i = 0; i < recorders.length; i++) {
+					wheel.schedule(recorders[i], delays[i]);
+				}
+			}
+		};
+		wheel.schedule(starter, when - Timed.getFireCount());
+	}
+
+	private static void assertFiredAt(final Recorder r, final long... expected) {
+		final Long[] boxed = new Long[expected.length];
+		for (int i = 0; i < expected.length; i++) {
+			boxed[i] = expected[i];
+		}
+		assertEquals(Arrays.asList(boxed), r.fired);
+	}
+
+	@Test(timeout = 10000)
+	public void zeroAndOneDelaysExpireAtTheNextTick() {
+		final Recorder zero = new Recorder();
+		final Recorder one = new Recorder();
+		final Recorder negative = new Recorder();
+		wheel.schedule(zero, 0);
+		wheel.schedule(one, 1);
+		wheel.schedule(negative, -5);
+		assertEquals(3, wheel.size());
+		Timed.simulateUntilLastEvent();
+		assertFiredAt(zero, 1);
+		assertFiredAt(one, 1);
+		assertFiredAt(negative, 1);
+		assertEquals(0, wheel.size());
+		assertFalse(wheel.isSubscribed());
+	}
+
+	@Test(timeout = 10000)
+	public void timersCascadeAtEveryLevelBoundary() {
+		for (int level = 1; level < TimerWheel.levels; level++) {
+			final long boundary = 7 * levelSpan(level);
+			final long[] delays = new long[] { levelSpan(level) - 1, levelSpan(level), levelSpan(level) + 1, 5 };
+			// Scheduled right before a boundary, so all timers cross it
+			final long start = boundary - 3;
+			final Recorder[] recorders = new Recorder[delays.length];
+			for (int i = 0; i < recorders.length; i++) {
+				recorders[i] = new Recorder();
+			}
+			scheduleAt(start, recorders, delays);
+			Timed.simulateUntilLastEvent();
+			for (int i = 0; i < recorders.length; i++) {
+				assertFiredAt(recorders[i], start + delays[i]);
+			}
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void farDeadlinesAreKeptInTheOverflow() {
+		final Recorder justOut = new Recorder();
+		final Recorder farOut = new Recorder();
+		final Recorder inRange = new Recorder();
+		wheel.schedule(justOut, range + 10);
+		wheel.schedule(farOut, 3 * range + 1);
+		wheel.schedule(inRange, range - 1);
+		Timed.simulateUntilLastEvent();
+		assertFiredAt(inRange, range - 1);
+		assertFiredAt(justOut, range + 10);
+		assertFiredAt(farOut, 3 * range + 1);
+	}
+
+	@Test(timeout = 10000)
+	public void cancelledTimersDoNotFire() {
+		final Recorder cancelled = new Recorder();
+		final Recorder kept = new Recorder();
+		wheel.schedule(cancelled, levelSpan(2) + 5);
+		wheel.schedule(kept, levelSpan(2) + 20);
+		wheel.cancel(cancelled);
+		assertFalse(cancelled.isScheduled());
+		assertEquals(1, wheel.size());
+		// Cancelling twice has no effect
+		wheel.cancel(cancelled);
+		assertEquals(1, wheel.size());
+		Timed.simulateUntilLastEvent();
+		assertTrue(cancelled.fired.isEmpty());
+		assertFiredAt(kept, levelSpan(2) + 20);
+	}
+
+	@Test(timeout = 10000)
+	public void timersCanBeCancelledAfterTheyCascaded() {
+		final Recorder cancelled = new Recorder();
+		final Recorder kept = new Recorder();
+		wheel.schedule(cancelled, levelSpan(2) + 5);
+		wheel.schedule(kept, levelSpan(2) + 20);
+		// Reaching the boundary moves the timers to level 0, then the cancel comes
+		wheel.schedule(new TimerWheel.Timer() {
+			@Override
+			protected void expire(final long fires) {
+				wheel.cancel(cancelled);
+			}
+		}, levelSpan(2));
+		Timed.simulateUntilLastEvent();
+		assertTrue(cancelled.fired.isEmpty());
+		assertFiredAt(kept, levelSpan(2) + 20);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test(timeout = 10000)
+	public void cancellingTheEarliestTimerKeepsTheOthersOnTime() {
+		final Recorder first = new Recorder();
+		final Recorder second = new Recorder();
+		wheel.schedule(first, 10);
+		wheel.schedule(second, 3 * levelSpan(1) + 2);
+		wheel.cancel(first);
+		Timed.simulateUntilLastEvent();
+		assertTrue(first.fired.isEmpty());
+		assertFiredAt(second, 3 * levelSpan(1) + 2);
+	}
+
+	@Test(timeout = 10000)
+	public void timersCanRescheduleFromTheirCallbacks() {
+		final List<Long> fired = new ArrayList<Long>();
+		final Recorder spawned = new Recorder();
+		wheel.schedule(new TimerWheel.Timer() {
+			@Override
+			protected void expire(final long fires) {
+				assertFalse(isScheduled());
+				fired.add(fires);
+				if (fired.size() < 5) {
+					wheel.schedule(this, 100);
+				} else {
+					// A zero delay from a callback still means the next tick
+					wheel.schedule(spawned, 0);
+				}
+			}
+		}, 100);
+		Timed.simulateUntilLastEvent();
+		assertEquals(Arrays.asList(100L, 200L, 300L, 400L, 500L), fired);
+		assertFiredAt(spawned, 501);
+		assertFalse(wheel.isSubscribed());
+	}
+
+	@Test(timeout = 10000)
+	public void reschedulingReplacesThePreviousDeadline() {
+		final Recorder r = new Recorder();
+		wheel.schedule(r, levelSpan(3));
+		wheel.schedule(r, 50);
+		assertEquals(1, wheel.size());
+		Timed.simulateUntilLastEvent();
+		assertFiredAt(r, 50);
+	}
+}
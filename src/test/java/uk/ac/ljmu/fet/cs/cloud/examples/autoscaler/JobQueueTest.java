@@ -0,0 +1,242 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
+/**
+ * Checks the order in which the queueing disciplines offer their jobs to the
+ * launcher.
+ */
+public class JobQueueTest {
+	private static class TestJob extends Job {
+		TestJob(final String id, final int nprocs, final long exec, final String user) {
+			super(id, 0, 0, exec, nprocs, 1, 1024, user, "group", "exec", null, 0);
+		}
+
+		@Override
+		public void started() {
+		}
+
+		@Override
+		public void completed() {
+		}
+	}
+
+	/**
+	 * Accepts the jobs as long as it has enough free processors, and records
+	 * all launch attempts.
+	 */
+	private static class CapacityLauncher implements JobLauncher {
+		int freeProcs;
+		final List<String> attempts = new ArrayList<String>();
+		final List<String> launched = new ArrayList<String>();
+
+		CapacityLauncher(final int freeProcs) {
+			this.freeProcs = freeProcs;
+		}
+
+		@Override
+		public boolean launchAJob(final Job j) {
+			attempts.add(j.getId());
+			if (j.nprocs > freeProcs) {
+				return true;
+			}
+			freeProcs -= j.nprocs;
+			launched.add(j.getId());
+			return false;
+		}
+
+		@Override
+		public void launchJobs(final List<Job> jobs, final List<Job> rejected) {
+			for (Job j : jobs) {
+				if (launchAJob(j)) {
+					rejected.add(j);
+				}
+			}
+		}
+
+		/**
+		 * Starts a new drain round with more capacity
+		 */
+		void reset(final int newFreeProcs) {
+			freeProcs = newFreeProcs;
+			attempts.clear();
+			launched.clear();
+		}
+	}
+
+	private static Job job(final String id, final int nprocs) {
+		return new TestJob(id, nprocs, 100, "user");
+	}
+
+	private static List<String> ids(final String... ids) {
+		return Arrays.asList(ids);
+	}
+
+	@Test
+	public void fifoStopsAtTheFirstRejectedJob() {
+		final JobQueue q = QueueingDiscipline.FIFO.newQueue();
+		q.add(job("a", 2));
+		q.add(job("b", 2));
+		q.add(job("c", 4));
+		q.add(job("d", 1));
+		final CapacityLauncher l = new CapacityLauncher(5);
+		assertFalse(q.drain(l));
+		assertEquals(ids("a", "b"), l.launched);
+		assertEquals(ids("a", "b", "c"), l.attempts);
+		l.reset(5);
+		assertTrue(q.drain(l));
+		assertEquals(ids("c", "d"), l.launched);
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void shortestFirstKeepsTheArrivalOrderOfTies() {
+		final JobQueue q = QueueingDiscipline.SJF.newQueue();
+		q.add(new TestJob("a", 1, 30, "user"));
+		q.add(new TestJob("b", 1, 10, "user"));
+		q.add(new TestJob("c", 1, 20, "user"));
+		q.add(new TestJob("d", 1, 10, "user"));
+		q.add(new TestJob("e", 1, 10, "user"));
+		final CapacityLauncher l = new CapacityLauncher(100);
+		assertTrue(q.drain(l));
+		assertEquals(ids("b", "d", "e", "c", "a"), l.launched);
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void shortestFirstRetriesTheRejectedShortestJob() {
+		final JobQueue q = QueueingDiscipline.SJF.newQueue();
+		q.add(new TestJob("long", 1, 50, "user"));
+		q.add(new TestJob("short", 8, 10, "user"));
+		final CapacityLauncher l = new CapacityLauncher(4);
+		assertFalse(q.drain(l));
+		assertEquals(ids("short"), l.attempts);
+		l.reset(9);
+		assertTrue(q.drain(l));
+		assertEquals(ids("short", "long"), l.launched);
+	}
+
+	@Test
+	public void backfillingKeepsTheHeadFirst() {
+		final JobQueue q = QueueingDiscipline.BACKFILL.newQueue();
+		q.add(job("head", 8));
+		q.add(job("s1", 2));
+		q.add(job("m", 4));
+		q.add(job("s2", 2));
+		q.add(job("same", 8));
+		q.add(job("big", 16));
+		final CapacityLauncher l = new CapacityLauncher(6);
+		assertFalse(q.drain(l));
+		// The smallest jobs are backfilled in arrival order, the first rejected
+		// size stops the backfilling, jobs as big as the head are not tried
+		assertEquals(ids("head", "s1", "s2", "m"), l.attempts);
+		assertEquals(ids("s1", "s2"), l.launched);
+
+		// The head is served first once it fits, the backfilled jobs are not
+		// offered again
+		l.reset(12);
+		assertFalse(q.drain(l));
+		assertEquals(ids("head", "m", "same"), l.attempts);
+		assertEquals(ids("head", "m"), l.launched);
+
+		l.reset(24);
+		assertTrue(q.drain(l));
+		assertEquals(ids("same", "big"), l.launched);
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void backfillingEmptiesGroupsLaunchedThroughTheHead() {
+		final JobQueue q = QueueingDiscipline.BACKFILL.newQueue();
+		q.add(job("a", 2));
+		q.add(job("b", 2));
+		q.add(job("head", 8));
+		q.add(job("c", 2));
+		q.add(job("d", 4));
+		final CapacityLauncher l = new CapacityLauncher(6);
+		assertFalse(q.drain(l));
+		// a and b leave through the head, c is backfilled from the same group
+		assertEquals(ids("a", "b", "head", "c", "d"), l.attempts);
+		assertEquals(ids("a", "b", "c"), l.launched);
+		assertFalse(q.isEmpty());
+		l.reset(12);
+		assertTrue(q.drain(l));
+		assertEquals(ids("head", "d"), l.launched);
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void fairShareServesTheLeastServedUserFirst() {
+		final JobQueue q = QueueingDiscipline.FAIRSHARE.newQueue();
+		q.add(new TestJob("a1", 4, 100, "alice"));
+		q.add(new TestJob("a2", 1, 10, "alice"));
+		q.add(new TestJob("b1", 1, 10, "bob"));
+		q.add(new TestJob("b2", 1, 10, "bob"));
+		final CapacityLauncher l = new CapacityLauncher(100);
+		assertTrue(q.drain(l));
+		// Alice used 400 processor seconds with her first job, so bob catches up
+		assertEquals(ids("a1", "b1", "b2", "a2"), l.launched);
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void fairShareRequeuesUsersInArrivalOrderOnTies() {
+		final JobQueue q = QueueingDiscipline.FAIRSHARE.newQueue();
+		q.add(new TestJob("a1", 1, 10, "alice"));
+		q.add(new TestJob("b1", 1, 10, "bob"));
+		q.add(new TestJob("a2", 1, 10, "alice"));
+		q.add(new TestJob("b2", 1, 10, "bob"));
+		final CapacityLauncher l = new CapacityLauncher(100);
+		assertTrue(q.drain(l));
+		assertEquals(ids("a1", "b1", "a2", "b2"), l.launched);
+	}
+
+	@Test
+	public void fairShareKeepsARejectedUserAtTheFront() {
+		final JobQueue q = QueueingDiscipline.FAIRSHARE.newQueue();
+		q.add(new TestJob("a1", 4, 10, "alice"));
+		q.add(new TestJob("b1", 1, 10, "bob"));
+		final CapacityLauncher l = new CapacityLauncher(2);
+		assertFalse(q.drain(l));
+		assertEquals(ids("a1"), l.attempts);
+		l.reset(5);
+		assertTrue(q.drain(l));
+		assertEquals(ids("a1", "b1"), l.launched);
+		// The usage is remembered after the queue emptied, so the new user is first
+		q.add(new TestJob("a2", 1, 10, "alice"));
+		q.add(new TestJob("c1", 1, 10, "carol"));
+		l.reset(5);
+		assertTrue(q.drain(l));
+		assertEquals(ids("c1", "a2"), l.launched);
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.ljmu.fet.cs.cloud.examples.autoscaler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.energy.powermodelling.PowerState;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.util.MetricsRegistry;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ConstantConstraints;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.AlwaysOnMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
+import hu.mta.sztaki.lpds.cloud.simulator.util.PowerTransitionGenerator;
+
+/**
+ * Checks the eviction policies and the pre-staging of the VA cache on a cloud
+ * with a central repository that only holds a few VAs.
+ */
+public class VACacheTest {
+	/**
+	 * The central repository can hold about three VAs (their sizes vary around
+	 * 1GB)
+	 */
+	private static final long storageSize = 3L * 1024 * 1024 * 1024;
+	private static final int maxKinds = 20;
+
+	private IaaSService cloud;
+	private Repository storage;
+	private PhysicalMachine pm;
+
+	@Before
+	public void setUp() throws Exception {
+		Timed.resetTimed();
+		MetricsRegistry.global.clear();
+		final EnumMap<PowerTransitionGenerator.PowerStateKind, Map<String, PowerState>> transitions = PowerTransitionGenerator
+				.generateTransitions(20, 296, 493, 50, 108);
+		final Map<String, PowerState> stTransitions = transitions.get(PowerTransitionGenerator.PowerStateKind.storage);
+		final Map<String, PowerState> nwTransitions = transitions.get(PowerTransitionGenerator.PowerStateKind.network);
+		final HashMap<String, Integer> latencies = new HashMap<String, Integer>();
+		latencies.put("Storage", 5);
+		latencies.put("Node1", 3);
+		cloud = new IaaSService(FirstFitScheduler.class, AlwaysOnMachines.class);
+		storage = new Repository(storageSize, "Storage", 1250000, 1250000, 250000, latencies, stTransitions,
+				nwTransitions);
+		cloud.registerRepository(storage);
+		pm = new PhysicalMachine(8, 0.001, 256000000000l,
+				new Repository(5000000000000l, "Node1", 250000, 250000, 50000, latencies, stTransitions, nwTransitions),
+				89000, 29000, transitions.get(PowerTransitionGenerator.PowerStateKind.host));
+		cloud.registerHost(pm);
+		// Lets the PM switch on
+		Timed.simulateUntilLastEvent();
+	}
+
+	@After
+	public void tearDown() {
+		Timed.resetTimed();
+		MetricsRegistry.global.clear();
+	}
+
+	private static long evictions() {
+		return MetricsRegistry.global.counter("vacache.evictions").get();
+	}
+
+	private static void use(final VACache cache, final String kind) {
+		cache.acquire(kind);
+		cache.release(kind);
+	}
+
+	/**
+	 * Uses new kinds until the first VA is evicted
+	 */
+	private static void fillUntilEviction(final VACache cache) {
+		for (int i = 0; i < maxKinds && evictions() == 0; i++) {
+			use(cache, "filler" + i);
+		}
+		assertEquals(1, evictions());
+	}
+
+	/**
+	 * The frequently used VA is the least recently used one
+	 */
+	private void frequentButOld(final VACache cache) {
+		for (int i = 0; i < 10; i++) {
+			use(cache, "frequent");
+		}
+		use(cache, "rare");
+	}
+
+	@Test
+	public void lruEvictsTheLeastRecentlyUsedVA() {
+		final VACache cache = new VACache(cloud, storage, VACache.Policy.LRU, 0);
+		frequentButOld(cache);
+		fillUntilEviction(cache);
+		assertNull(storage.lookup("frequent"));
+		assertNotNull(storage.lookup("rare"));
+	}
+
+	@Test
+	public void lfuEvictsTheLeastFrequentlyUsedVA() {
+		final VACache cache = new VACache(cloud, storage, VACache.Policy.LFU, 0);
+		frequentButOld(cache);
+		fillUntilEviction(cache);
+		assertNotNull(storage.lookup("frequent"));
+		assertNull(storage.lookup("rare"));
+	}
+
+	@Test
+	public void vasInUseAreNotEvicted() {
+		final VACache cache = new VACache(cloud, storage, VACache.Policy.LRU, 0);
+		cache.acquire("running");
+		fillUntilEviction(cache);
+		assertNotNull(storage.lookup("running"));
+	}
+
+	@Test
+	public void hotVAsAreStagedOnTheRunningPMs() {
+		final VACache cache = new VACache(cloud, storage, VACache.Policy.LRU, 1);
+		cache.acquire("hot");
+		Timed.simulateUntilLastEvent();
+		assertNotNull(pm.localDisk.lookup("hot"));
+		assertEquals(1, MetricsRegistry.global.counter("vacache.prestaged").get());
+		assertSame(pm, cache.findStagedHost("hot", new ConstantConstraints(1, 0.001, 1024)));
+	}
+
+	@Test
+	public void vasEvictedDuringTheTransferAreRemovedFromTheDisks() {
+		final VACache cache = new VACache(cloud, storage, VACache.Policy.LRU, 1);
+		// Used twice, so the fillers used once are not hot enough to be staged
+		use(cache, "hot");
+		use(cache, "hot");
+		// The copy of the hot VA is still in transfer when it is evicted
+		fillUntilEviction(cache);
+		assertNull(storage.lookup("hot"));
+		Timed.simulateUntilLastEvent();
+		assertNull(pm.localDisk.lookup("hot"));
+		assertEquals(0, MetricsRegistry.global.counter("vacache.prestaged").get());
+		assertNull(cache.findStagedHost("hot", new ConstantConstraints(1, 0.001, 1024)));
+	}
+}